@@ -0,0 +1,169 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+
+public class AvailabilityCalendar implements NightAudit.Rollover {
+    private static final int INITIAL_DAYS = 512;
+
+    private LocalDate baseDate;
+    private long baseDay;
+    // One bit per night, bit i set when the night starting at baseDate + i is booked. Nights before baseDate are
+    // not tracked: a range that starts before it is clipped to its remaining nights, and a range that ends on or
+    // before it can be neither checked nor reserved.
+    private long[] words;
+    private int bookedNights;
+
+    public AvailabilityCalendar() {
+        this(LocalDate.now());
+    }
+
+    public AvailabilityCalendar(LocalDate baseDate) {
+        this.baseDate = baseDate;
+        this.baseDay = baseDate.toEpochDay();
+        this.words = new long[INITIAL_DAYS / 64];
+    }
+
+    public synchronized boolean isFree(LocalDate checkIn, LocalDate checkOut) {
+        checkRange(checkIn, checkOut);
+        return !endsBeforeStart(checkOut) && isFree(dayIndex(checkIn), dayIndex(checkOut));
+    }
+
+    public synchronized boolean isBooked(LocalDate night) {
+        if (night.toEpochDay() < baseDay) {
+            return false;
+        }
+        int index = dayIndex(night);
+        int word = index >>> 6;
+        return word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    // Books every night in [checkIn, checkOut) only if all of them are free
+    public synchronized boolean reserve(LocalDate checkIn, LocalDate checkOut) {
+        checkRange(checkIn, checkOut);
+        if (endsBeforeStart(checkOut)) {
+            return false;
+        }
+        int from = dayIndex(checkIn);
+        int to = dayIndex(checkOut);
+        if (!isFree(from, to)) {
+            return false;
+        }
+
+        ensureCapacity(to);
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        for (int w = first; w <= last; w++) {
+            words[w] |= mask(w, first, last, from, to);
+        }
+        bookedNights += to - from;
+        return true;
+    }
+
+    public synchronized void release(LocalDate checkIn, LocalDate checkOut) {
+        checkRange(checkIn, checkOut);
+        int from = dayIndex(checkIn);
+        int to = Math.min(dayIndex(checkOut), words.length * 64);
+        if (from >= to) {
+            return;
+        }
+
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        for (int w = first; w <= last; w++) {
+            long bits = words[w] & mask(w, first, last, from, to);
+            bookedNights -= Long.bitCount(bits);
+            words[w] &= ~bits;
+        }
+    }
+
+    public synchronized int countBookedNights(LocalDate from, LocalDate to) {
+        checkRange(from, to);
+        int start = dayIndex(from);
+        int end = Math.min(dayIndex(to), words.length * 64);
+        if (start >= end) {
+            return 0;
+        }
+
+        int first = start >>> 6;
+        int last = (end - 1) >>> 6;
+        int count = 0;
+        for (int w = first; w <= last; w++) {
+            count += Long.bitCount(words[w] & mask(w, first, last, start, end));
+        }
+        return count;
+    }
+
+    // Moves the start of the calendar forward to the 64-night boundary at or before the given date, dropping the
+    // nights before it so the calendar does not keep growing as time passes; returns the new start
+    @Override
+    public synchronized LocalDate advanceTo(LocalDate date) {
+        long offset = date.toEpochDay() - baseDay;
+        if (offset < 64) {
+            return baseDate;
+        }
+
+        long droppedDays = offset & ~63L;
+        int droppedWords = (int) Math.min(droppedDays >>> 6, words.length);
+        for (int w = 0; w < droppedWords; w++) {
+            bookedNights -= Long.bitCount(words[w]);
+        }
+        words = Arrays.copyOfRange(words, droppedWords, droppedWords + Math.max(words.length - droppedWords, INITIAL_DAYS / 64));
+        baseDay += droppedDays;
+        baseDate = LocalDate.ofEpochDay(baseDay);
+        return baseDate;
+    }
+
+    private boolean isFree(int from, int to) {
+        int first = from >>> 6;
+        if (from >= to || first >= words.length) {
+            return true;
+        }
+        int last = Math.min((to - 1) >>> 6, words.length - 1);
+        int lastWord = (to - 1) >>> 6;
+        for (int w = first; w <= last; w++) {
+            if ((words[w] & mask(w, first, lastWord, from, to)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mask(int word, int first, int last, int from, int to) {
+        long mask = -1L;
+        if (word == first) {
+            mask &= -1L << from;
+        }
+        if (word == last) {
+            mask &= -1L >>> (63 - ((to - 1) & 63));
+        }
+        return mask;
+    }
+
+    private boolean endsBeforeStart(LocalDate checkOut) {
+        return checkOut.toEpochDay() <= baseDay;
+    }
+
+    // Dates before the start clamp to index 0, so a range that began in the past covers only its remaining nights
+    private int dayIndex(LocalDate date) {
+        long offset = date.toEpochDay() - baseDay;
+        if (offset > Integer.MAX_VALUE - 64) {
+            throw new IllegalArgumentException("Date " + date + " is too far in the future");
+        }
+        return (int) Math.max(offset, 0);
+    }
+
+    private static void checkRange(LocalDate checkIn, LocalDate checkOut) {
+        if (!checkOut.isAfter(checkIn)) {
+            throw new IllegalArgumentException("Check-out date must be after check-in date");
+        }
+    }
+
+    private void ensureCapacity(int days) {
+        int needed = (days + 63) >>> 6;
+        if (needed > words.length) {
+            words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+        }
+    }
+
+    public synchronized LocalDate getBaseDate() { return baseDate; }
+    public synchronized int getBookedNights() { return bookedNights; }
+}
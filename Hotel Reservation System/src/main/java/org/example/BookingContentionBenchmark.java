@@ -0,0 +1,114 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+// Standalone contention benchmark: the same seeded book/cancel workload against one stripe (a global lock)
+// and against the default striping. Run with java BookingContentionBenchmark [threads] [rooms] [opsPerThread] [rounds]
+public class BookingContentionBenchmark {
+
+    private static final LocalDate CALENDAR_START = LocalDate.of(2030, 1, 1);
+    private static final int HORIZON_DAYS = 365;
+    private static final long SEED = 20240601L;
+    private static final int WARMUP_ROUNDS = 2;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int roomCount = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int opsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        System.out.printf("threads=%d rooms=%d opsPerThread=%d rounds=%d (+%d warmup)%n",
+                threads, roomCount, opsPerThread, rounds, WARMUP_ROUNDS);
+        System.out.printf("%-10s %8s %14s %14s %10s%n", "mode", "stripes", "median ops/s", "best ops/s", "booked %");
+
+        report("global", 1, threads, roomCount, opsPerThread, rounds);
+        report("striped", 64, threads, roomCount, opsPerThread, rounds);
+    }
+
+    private static void report(String mode, int stripeCount, int threads, int roomCount, int opsPerThread,
+                               int rounds) throws InterruptedException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runRound(stripeCount, threads, roomCount, opsPerThread);
+        }
+
+        double[] throughput = new double[rounds];
+        double bookedShare = 0;
+        for (int i = 0; i < rounds; i++) {
+            Result result = runRound(stripeCount, threads, roomCount, opsPerThread);
+            throughput[i] = result.operations * 1e9 / result.elapsedNanos;
+            bookedShare += (double) result.booked / result.attempts;
+        }
+        Arrays.sort(throughput);
+
+        System.out.printf("%-10s %8d %14.0f %14.0f %9.1f%%%n", mode, stripeCount, throughput[rounds / 2],
+                throughput[rounds - 1], bookedShare / rounds * 100);
+    }
+
+    // Every round starts from empty rooms and the same per-thread seeds, so both modes see identical requests
+    private static Result runRound(int stripeCount, int threads, int roomCount, int opsPerThread)
+            throws InterruptedException {
+        List<Room> inventory = new ArrayList<>(roomCount);
+        for (int i = 0; i < roomCount; i++) {
+            inventory.add(new Room(String.valueOf(100 + i), Room.RoomType.STANDARD, 2, 1 + i / 50, CALENDAR_START));
+        }
+        BookingService service = new BookingService(inventory, stripeCount);
+
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] cancelled = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(SEED + index);
+                Guest guest = new Guest("Bench", "Guest" + index, "bench" + index + "@example.com", "555-0100");
+                ready.countDown();
+                try {
+                    start.await();
+                    // Book, then cancel every other booking so the calendars neither fill up nor stay empty
+                    for (int op = 0; op < opsPerThread; op++) {
+                        String roomNumber = String.valueOf(100 + random.nextInt(roomCount));
+                        LocalDate checkIn = CALENDAR_START.plusDays(random.nextInt(HORIZON_DAYS - 7));
+                        LocalDate checkOut = checkIn.plusDays(1 + random.nextInt(6));
+                        Reservation reservation = service.book(guest, roomNumber, checkIn, checkOut, 1);
+                        if (reservation != null && (op & 1) == 0 && service.cancel(reservation.getReservationId())) {
+                            cancelled[index]++;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-" + index);
+            worker.start();
+        }
+
+        ready.await();
+        long began = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - began;
+
+        long booked = service.getBookedCount();
+        long attempts = booked + service.getRejectedCount();
+        return new Result(attempts + Arrays.stream(cancelled).sum(), attempts, booked, elapsed);
+    }
+
+    private static class Result {
+        private final long operations;
+        private final long attempts;
+        private final long booked;
+        private final long elapsedNanos;
+
+        private Result(long operations, long attempts, long booked, long elapsedNanos) {
+            this.operations = operations;
+            this.attempts = attempts;
+            this.booked = booked;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+}
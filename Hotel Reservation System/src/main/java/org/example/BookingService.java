@@ -0,0 +1,602 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class BookingService {
+    // Called while the room's stripe lock is held, so events for one room arrive in order
+    public interface BookingListener {
+        void onBooked(Reservation reservation, Room room);
+        void onCancelled(Reservation reservation, Room room);
+
+        // A reservation loaded from storage took its nights again; by default seen as a new booking
+        default void onRestored(Reservation reservation, Room room) {
+            onBooked(reservation, room);
+        }
+
+        // Confirmation, check-in and check-out; the nights held do not change
+        default void onStatusChanged(Reservation reservation, Room room) {
+        }
+
+        // Checked out before the booked check-out date: the nights from the new check-out date up to bookedCheckOut
+        // were released and the total now covers only the nights stayed; by default seen as a status change
+        default void onCheckedOutEarly(Reservation reservation, Room room, LocalDate bookedCheckOut) {
+            onStatusChanged(reservation, room);
+        }
+
+        // A payment was credited; may also have confirmed the reservation
+        default void onPaymentApplied(Reservation reservation, Room room) {
+        }
+
+        // The guest's reservation list grew; called under the booking's stripe lock, not the guest's
+        default void onGuestChanged(Guest guest) {
+        }
+
+        // The same nights moved to another room; by default seen as a release and a new booking
+        default void onMoved(Reservation reservation, Room from, Room to) {
+            onCancelled(reservation, from);
+            onBooked(reservation, to);
+        }
+    }
+
+    private final Map<String, Room> rooms;
+    private final Map<String, Reservation> reservations;
+    private final ReentrantLock[] stripes;
+    private final List<BookingListener> listeners;
+    private final LongAdder bookedCount;
+    private final LongAdder rejectedCount;
+    private volatile PricingEngine pricingEngine;
+
+    public BookingService(Collection<Room> inventory) {
+        this(inventory, 64);
+    }
+
+    public BookingService(Collection<Room> inventory, int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+
+        this.rooms = new ConcurrentHashMap<>();
+        for (Room room : inventory) {
+            rooms.put(room.getRoomNumber(), room);
+        }
+        this.reservations = new ConcurrentHashMap<>();
+        this.stripes = new ReentrantLock[Integer.highestOneBit(stripeCount * 2 - 1)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.bookedCount = new LongAdder();
+        this.rejectedCount = new LongAdder();
+    }
+
+    public void addListener(BookingListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(BookingListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Prices new bookings from the engine's quotes and keeps its occupancy in step with bookings
+    public synchronized void setPricingEngine(PricingEngine pricingEngine) {
+        if (this.pricingEngine != null) {
+            listeners.remove(this.pricingEngine);
+        }
+        this.pricingEngine = pricingEngine;
+        if (pricingEngine != null) {
+            listeners.add(pricingEngine);
+        }
+    }
+
+    // Returns null when the room is already taken for any of the requested nights
+    public Reservation book(Guest guest, String roomNumber, LocalDate checkIn, LocalDate checkOut, int numberOfGuests) {
+        Room room = getRoomOrThrow(roomNumber);
+        if (numberOfGuests <= 0 || numberOfGuests > room.getCapacity()) {
+            throw new IllegalArgumentException("Room " + roomNumber + " cannot hold " + numberOfGuests + " guests");
+        }
+
+        // Quoted before the dates are taken so a pricing error cannot leave nights reserved with no booking
+        PricingEngine engine = pricingEngine;
+        PricingEngine.Quote quote = engine == null ? null : engine.quote(room.getType(), checkIn, checkOut, guest);
+
+        ReentrantLock lock = stripeFor(roomNumber);
+        lock.lock();
+        try {
+            if (!room.reserveDates(checkIn, checkOut)) {
+                rejectedCount.increment();
+                return null;
+            }
+
+            Reservation reservation = createReservation(guest, room, checkIn, checkOut, numberOfGuests, quote);
+            reservations.put(reservation.getReservationId(), reservation);
+            bookedCount.increment();
+            for (BookingListener listener : listeners) {
+                listener.onBooked(reservation, room);
+            }
+            for (BookingListener listener : listeners) {
+                listener.onGuestChanged(guest);
+            }
+            return reservation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Books the given number of rooms per type for the same nights, all or none. Returns null when the block
+    // cannot be filled; nothing is reserved in that case.
+    public List<Reservation> bookBlock(Guest guest, Map<Room.RoomType, Integer> roomsByType, LocalDate checkIn,
+                                       LocalDate checkOut, int guestsPerRoom) {
+        if (!checkOut.isAfter(checkIn)) {
+            throw new IllegalArgumentException("Check-out must be after check-in");
+        }
+        if (guestsPerRoom <= 0) {
+            throw new IllegalArgumentException("Guests per room must be positive");
+        }
+        for (Map.Entry<Room.RoomType, Integer> wanted : roomsByType.entrySet()) {
+            if (wanted.getValue() < 0) {
+                throw new IllegalArgumentException("Negative room count for " + wanted.getKey());
+            }
+        }
+
+        // Everything that looks free now is a candidate, neighbouring room numbers first so a block stays together.
+        // Rooms taken between this scan and the locks are skipped, so the block only fails if it is really short.
+        Map<Room.RoomType, List<Room>> candidates = new EnumMap<>(Room.RoomType.class);
+        for (Room room : rooms.values()) {
+            Integer wanted = roomsByType.get(room.getType());
+            if (wanted != null && wanted > 0 && room.getCapacity() >= guestsPerRoom
+                    && room.isAvailableForDates(checkIn, checkOut)) {
+                candidates.computeIfAbsent(room.getType(), type -> new ArrayList<>()).add(room);
+            }
+        }
+        List<String> involved = new ArrayList<>();
+        Map<Room.RoomType, PricingEngine.Quote> quotes = new EnumMap<>(Room.RoomType.class);
+        PricingEngine engine = pricingEngine;
+        for (Map.Entry<Room.RoomType, Integer> wanted : roomsByType.entrySet()) {
+            List<Room> available = candidates.getOrDefault(wanted.getKey(), Collections.emptyList());
+            if (available.size() < wanted.getValue()) {
+                rejectedCount.increment();
+                return null;
+            }
+            available.sort(Comparator.comparing(Room::getRoomNumber));
+            for (Room room : available) {
+                involved.add(room.getRoomNumber());
+            }
+            if (engine != null && wanted.getValue() > 0) {
+                quotes.put(wanted.getKey(), engine.quote(wanted.getKey(), checkIn, checkOut, guest));
+            }
+        }
+
+        int[] locked = lockStripes(involved);
+        try {
+            List<Room> taken = new ArrayList<>();
+            for (Map.Entry<Room.RoomType, Integer> wanted : roomsByType.entrySet()) {
+                int needed = wanted.getValue();
+                for (Room room : candidates.getOrDefault(wanted.getKey(), Collections.emptyList())) {
+                    if (needed == 0) {
+                        break;
+                    }
+                    if (room.reserveDates(checkIn, checkOut)) {
+                        taken.add(room);
+                        needed--;
+                    }
+                }
+                if (needed > 0) {
+                    for (Room room : taken) {
+                        room.releaseDates(checkIn, checkOut);
+                    }
+                    rejectedCount.increment();
+                    return null;
+                }
+            }
+
+            List<Reservation> block = new ArrayList<>(taken.size());
+            for (Room room : taken) {
+                Reservation reservation = createReservation(guest, room, checkIn, checkOut, guestsPerRoom,
+                        quotes.get(room.getType()));
+                reservations.put(reservation.getReservationId(), reservation);
+                block.add(reservation);
+            }
+            bookedCount.add(block.size());
+            for (int i = 0; i < block.size(); i++) {
+                for (BookingListener listener : listeners) {
+                    listener.onBooked(block.get(i), taken.get(i));
+                }
+            }
+            for (BookingListener listener : listeners) {
+                listener.onGuestChanged(guest);
+            }
+            return block;
+        } finally {
+            unlockStripes(locked);
+        }
+    }
+
+    private Reservation createReservation(Guest guest, Room room, LocalDate checkIn, LocalDate checkOut,
+                                          int numberOfGuests, PricingEngine.Quote quote) {
+        double amount;
+        double discountRate;
+        if (quote != null) {
+            amount = quote.getRoomSubtotal(room);
+            discountRate = quote.getDiscountRate();
+        } else {
+            amount = room.calculatePrice((int) (checkOut.toEpochDay() - checkIn.toEpochDay()));
+            discountRate = guest.getVipDiscount();
+        }
+
+        Reservation reservation = new Reservation(guest.getGuestId(), room.getRoomNumber(), checkIn, checkOut,
+                numberOfGuests, amount);
+        if (discountRate > 0) {
+            reservation.applyDiscount(amount * discountRate, "VIP discount");
+        }
+        synchronized (guest) {
+            guest.addReservation(reservation.getReservationId());
+        }
+        return reservation;
+    }
+
+    public boolean cancel(String reservationId) {
+        Reservation reservation = reservations.get(reservationId);
+        if (reservation == null) {
+            return false;
+        }
+
+        ReentrantLock lock = lockRoomOf(reservation);
+        try {
+            if (!reservation.canBeCancelled()) {
+                return false;
+            }
+            Room room = rooms.get(reservation.getRoomNumber());
+            reservation.cancelReservation();
+            room.releaseDates(reservation.getCheckInDate(), reservation.getCheckOutDate());
+            for (BookingListener listener : listeners) {
+                listener.onCancelled(reservation, room);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Frees the remaining nights of a guest who never arrived; listeners see it as a release
+    public boolean markNoShow(Reservation reservation, LocalDate businessDate) {
+        ReentrantLock lock = lockRoomOf(reservation);
+        try {
+            if (!reservation.markAsNoShow(businessDate)) {
+                return false;
+            }
+            Room room = rooms.get(reservation.getRoomNumber());
+            if (room != null) {
+                room.releaseDates(reservation.getCheckInDate(), reservation.getCheckOutDate());
+                for (BookingListener listener : listeners) {
+                    listener.onCancelled(reservation, room);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean confirm(String reservationId) {
+        Reservation reservation = reservations.get(reservationId);
+        if (reservation == null) {
+            return false;
+        }
+
+        ReentrantLock lock = lockRoomOf(reservation);
+        try {
+            if (reservation.getStatus() != Reservation.ReservationStatus.PENDING) {
+                return false;
+            }
+            reservation.confirmReservation();
+            Room room = rooms.get(reservation.getRoomNumber());
+            for (BookingListener listener : listeners) {
+                listener.onStatusChanged(reservation, room);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean checkIn(String reservationId) {
+        Reservation reservation = reservations.get(reservationId);
+        if (reservation == null) {
+            return false;
+        }
+
+        ReentrantLock lock = lockRoomOf(reservation);
+        try {
+            reservation.checkIn();
+            if (reservation.getStatus() != Reservation.ReservationStatus.CHECKED_IN) {
+                return false;
+            }
+            Room room = rooms.get(reservation.getRoomNumber());
+            room.markAsOccupied();
+            for (BookingListener listener : listeners) {
+                listener.onStatusChanged(reservation, room);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean checkOut(String reservationId) {
+        Reservation reservation = reservations.get(reservationId);
+        if (reservation == null) {
+            return false;
+        }
+
+        ReentrantLock lock = lockRoomOf(reservation);
+        try {
+            reservation.checkOut();
+            if (reservation.getStatus() != Reservation.ReservationStatus.CHECKED_OUT) {
+                return false;
+            }
+            Room room = rooms.get(reservation.getRoomNumber());
+            room.markAsAvailable();
+            for (BookingListener listener : listeners) {
+                listener.onStatusChanged(reservation, room);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Checks out on the given date; leaving early gives the unused nights back so they can be sold again
+    public boolean checkOut(String reservationId, LocalDate departureDate) {
+        Reservation reservation = reservations.get(reservationId);
+        if (reservation == null) {
+            return false;
+        }
+
+        ReentrantLock lock = lockRoomOf(reservation);
+        try {
+            LocalDate bookedCheckOut = reservation.getCheckOutDate();
+            synchronized (reservation) {
+                reservation.checkOut(departureDate);
+            }
+            if (reservation.getStatus() != Reservation.ReservationStatus.CHECKED_OUT) {
+                return false;
+            }
+            Room room = rooms.get(reservation.getRoomNumber());
+            room.markAsAvailable();
+            if (reservation.getCheckOutDate().isBefore(bookedCheckOut)) {
+                room.releaseDates(reservation.getCheckOutDate(), bookedCheckOut);
+                for (BookingListener listener : listeners) {
+                    listener.onCheckedOutEarly(reservation, room, bookedCheckOut);
+                }
+            } else {
+                for (BookingListener listener : listeners) {
+                    listener.onStatusChanged(reservation, room);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Credits a captured payment. Held under the room's stripe since a full payment confirms a pending reservation;
+    // the reservation's own monitor is taken as well for readers that want its amounts consistent.
+    public boolean applyPayment(Reservation reservation, double amount, String paymentMethod) {
+        ReentrantLock lock = lockRoomOf(reservation);
+        try {
+            boolean applied;
+            synchronized (reservation) {
+                applied = reservation.makePayment(amount, paymentMethod);
+            }
+            if (applied) {
+                Room room = rooms.get(reservation.getRoomNumber());
+                for (BookingListener listener : listeners) {
+                    listener.onPaymentApplied(reservation, room);
+                }
+            }
+            return applied;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves each reservation to its target room for the same nights, all or none. Returns false without changing
+    // anything if a target room has been taken for any of those nights, or a reservation to move is no longer
+    // pending or confirmed.
+    public boolean reassign(Map<Reservation, String> moves) {
+        for (Map.Entry<Reservation, String> move : moves.entrySet()) {
+            Reservation reservation = move.getKey();
+            Room target = getRoomOrThrow(move.getValue());
+            if (reservation.getNumberOfGuests() > target.getCapacity()) {
+                throw new IllegalArgumentException("Room " + target.getRoomNumber() + " cannot hold "
+                        + reservation.getNumberOfGuests() + " guests");
+            }
+        }
+
+        while (true) {
+            Set<String> involved = new HashSet<>();
+            Map<Reservation, String> origins = new HashMap<>();
+            for (Map.Entry<Reservation, String> move : moves.entrySet()) {
+                String origin = move.getKey().getRoomNumber();
+                origins.put(move.getKey(), origin);
+                involved.add(origin);
+                involved.add(move.getValue());
+            }
+
+            int[] locked = lockStripes(involved);
+            try {
+                // Moved by someone else between reading the rooms and locking them; go round again
+                boolean stale = false;
+                for (Map.Entry<Reservation, String> origin : origins.entrySet()) {
+                    if (!origin.getKey().getRoomNumber().equals(origin.getValue())) {
+                        stale = true;
+                        break;
+                    }
+                }
+                if (stale) {
+                    continue;
+                }
+                return moveLocked(moves);
+            } finally {
+                unlockStripes(locked);
+            }
+        }
+    }
+
+    private boolean moveLocked(Map<Reservation, String> moves) {
+        List<Reservation> moving = new ArrayList<>();
+        for (Map.Entry<Reservation, String> move : moves.entrySet()) {
+            Reservation reservation = move.getKey();
+            if (move.getValue().equals(reservation.getRoomNumber())) {
+                continue;
+            }
+            // Cancelled, checked in or marked no-show since the moves were planned: as stale as a changed room
+            Reservation.ReservationStatus status = reservation.getStatus();
+            if (status != Reservation.ReservationStatus.PENDING && status != Reservation.ReservationStatus.CONFIRMED) {
+                rejectedCount.increment();
+                return false;
+            }
+            moving.add(reservation);
+        }
+
+        // Free every origin first so reservations can swap rooms within one call
+        for (Reservation reservation : moving) {
+            rooms.get(reservation.getRoomNumber()).releaseDates(reservation.getCheckInDate(), reservation.getCheckOutDate());
+        }
+        int reserved = 0;
+        for (; reserved < moving.size(); reserved++) {
+            Reservation reservation = moving.get(reserved);
+            if (!rooms.get(moves.get(reservation)).reserveDates(reservation.getCheckInDate(), reservation.getCheckOutDate())) {
+                break;
+            }
+        }
+
+        if (reserved < moving.size()) {
+            for (int i = 0; i < reserved; i++) {
+                Reservation reservation = moving.get(i);
+                rooms.get(moves.get(reservation)).releaseDates(reservation.getCheckInDate(), reservation.getCheckOutDate());
+            }
+            for (Reservation reservation : moving) {
+                rooms.get(reservation.getRoomNumber()).reserveDates(reservation.getCheckInDate(), reservation.getCheckOutDate());
+            }
+            rejectedCount.increment();
+            return false;
+        }
+
+        for (Reservation reservation : moving) {
+            Room from = rooms.get(reservation.getRoomNumber());
+            Room to = rooms.get(moves.get(reservation));
+            reservation.setRoomNumber(to.getRoomNumber());
+            for (BookingListener listener : listeners) {
+                listener.onMoved(reservation, from, to);
+            }
+        }
+        return true;
+    }
+
+    // Re-registers reservations loaded from storage: active ones take their nights again and listeners see them restored
+    public int restore(Collection<Reservation> restored) {
+        int active = 0;
+        for (Reservation reservation : restored) {
+            Room room = getRoomOrThrow(reservation.getRoomNumber());
+            ReentrantLock lock = stripeFor(reservation.getRoomNumber());
+            lock.lock();
+            try {
+                reservations.put(reservation.getReservationId(), reservation);
+                if (!holdsNights(reservation)) {
+                    continue;
+                }
+                // A stay that ended before the calendar start, e.g. a guest still in house past check-out, holds no
+                // tracked nights
+                boolean tracked = reservation.getCheckOutDate().isAfter(room.getCalendar().getBaseDate());
+                if (tracked && !room.reserveDates(reservation.getCheckInDate(), reservation.getCheckOutDate())) {
+                    throw new IllegalStateException("Restored reservation " + reservation.getReservationId()
+                            + " overlaps another booking of room " + room.getRoomNumber());
+                }
+                if (reservation.getStatus() == Reservation.ReservationStatus.CHECKED_IN) {
+                    room.markAsOccupied();
+                }
+                active++;
+                for (BookingListener listener : listeners) {
+                    listener.onRestored(reservation, room);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return active;
+    }
+
+    private static boolean holdsNights(Reservation reservation) {
+        Reservation.ReservationStatus status = reservation.getStatus();
+        return status == Reservation.ReservationStatus.PENDING
+                || status == Reservation.ReservationStatus.CONFIRMED
+                || status == Reservation.ReservationStatus.CHECKED_IN;
+    }
+
+    private Room getRoomOrThrow(String roomNumber) {
+        Room room = rooms.get(roomNumber);
+        if (room == null) {
+            throw new IllegalArgumentException("Unknown room: " + roomNumber);
+        }
+        return room;
+    }
+
+    private ReentrantLock stripeFor(String roomNumber) {
+        return stripes[stripeIndex(roomNumber)];
+    }
+
+    // Locks the stripe of the reservation's current room. A reassign between reading the room and taking the lock
+    // means the wrong stripe is held, so go round again; reassign holds both rooms' stripes, so once the stripe
+    // matches, the room number cannot change until the lock is released.
+    private ReentrantLock lockRoomOf(Reservation reservation) {
+        while (true) {
+            ReentrantLock lock = stripeFor(reservation.getRoomNumber());
+            lock.lock();
+            if (stripeFor(reservation.getRoomNumber()) == lock) {
+                return lock;
+            }
+            lock.unlock();
+        }
+    }
+
+    private int stripeIndex(String roomNumber) {
+        int h = roomNumber.hashCode();
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+
+    // Stripes are always taken in index order, so operations spanning several rooms cannot deadlock each other
+    private int[] lockStripes(Collection<String> roomNumbers) {
+        int[] indexes = roomNumbers.stream().mapToInt(this::stripeIndex).distinct().sorted().toArray();
+        for (int index : indexes) {
+            stripes[index].lock();
+        }
+        return indexes;
+    }
+
+    private void unlockStripes(int[] indexes) {
+        for (int i = indexes.length - 1; i >= 0; i--) {
+            stripes[indexes[i]].unlock();
+        }
+    }
+
+    public Reservation getReservation(String reservationId) { return reservations.get(reservationId); }
+    public Room getRoom(String roomNumber) { return rooms.get(roomNumber); }
+    public Collection<Room> getRooms() { return rooms.values(); }
+    public Collection<Reservation> getReservations() { return reservations.values(); }
+    public long getBookedCount() { return bookedCount.sum(); }
+    public long getRejectedCount() { return rejectedCount.sum(); }
+    public PricingEngine getPricingEngine() { return pricingEngine; }
+}
@@ -0,0 +1,502 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+// Month-end export of every folio and payment receipt. Each partition streams its share of the records into its own
+// files through a fixed-size buffer, and the records are never copied, so memory stays flat however many there are.
+public class FolioExporter {
+    public enum Format {
+        CSV, JSON
+    }
+
+    public static class ExportSummary {
+        private final List<Path> files;
+        private final long folios;
+        private final long receipts;
+        private final long bytes;
+
+        private ExportSummary(List<Path> files, long folios, long receipts, long bytes) {
+            this.files = files;
+            this.folios = folios;
+            this.receipts = receipts;
+            this.bytes = bytes;
+        }
+
+        public List<Path> getFiles() { return files; }
+        public long getFolios() { return folios; }
+        public long getReceipts() { return receipts; }
+        public long getBytes() { return bytes; }
+
+        @Override
+        public String toString() {
+            return String.format("Export{files=%d, folios=%d, receipts=%d, bytes=%d}", files.size(), folios, receipts, bytes);
+        }
+    }
+
+    private static final String FOLIO_HEADER = "reservation_id,guest_id,room,check_in,check_out,nights,guests,status,"
+            + "total_amount,amount_paid,remaining,discount,discount_reason,posted_charges,payment_status,payment_method,"
+            + "special_requests\n";
+    private static final String RECEIPT_HEADER = "payment_id,reservation_id,transaction_ref,date_time,amount,"
+            + "processing_fee,total_charged,method,card_number,card_holder,status,description\n";
+
+    private final Format format;
+    private final int partitions;
+    private final int bufferBytes;
+
+    public FolioExporter(Format format) {
+        this(format, Runtime.getRuntime().availableProcessors(), 256 * 1024);
+    }
+
+    public FolioExporter(Format format, int partitions, int bufferBytes) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Partition count must be positive");
+        }
+        if (bufferBytes < 1024) {
+            throw new IllegalArgumentException("Buffer must be at least 1024 bytes");
+        }
+        this.format = format;
+        this.partitions = partitions;
+        this.bufferBytes = bufferBytes;
+    }
+
+    // Writes folios-NNN and receipts-NNN files, one pair per partition, into the directory. A random-access list is
+    // cut into contiguous slices in place; any other collection, such as BookingService.getReservations(), is split
+    // through its own spliterator, which for concurrent collections tolerates updates while the export runs
+    public ExportSummary export(Collection<Reservation> reservations, Collection<Payment> payments, Path directory)
+            throws IOException {
+        Files.createDirectories(directory);
+        List<Spliterator<Reservation>> folios = split(reservations);
+        List<Spliterator<Payment>> receipts = split(payments);
+        String extension = format == Format.CSV ? ".csv" : ".jsonl";
+
+        List<Path> files = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) {
+            files.add(directory.resolve(String.format("folios-%03d%s", p, extension)));
+        }
+        for (int p = 0; p < partitions; p++) {
+            files.add(directory.resolve(String.format("receipts-%03d%s", p, extension)));
+        }
+
+        LongAdder bytes = new LongAdder();
+        LongAdder folioCount = new LongAdder();
+        LongAdder receiptCount = new LongAdder();
+        try {
+            IntStream.range(0, partitions * 2).parallel().forEach(task -> {
+                int p = task % partitions;
+                try (RecordWriter out = new RecordWriter(files.get(task), bufferBytes)) {
+                    if (task < partitions) {
+                        if (format == Format.CSV) {
+                            out.put(FOLIO_HEADER);
+                        }
+                        for (Iterator<Reservation> it = Spliterators.iterator(folios.get(p)); it.hasNext(); ) {
+                            writeFolio(out, it.next());
+                            folioCount.increment();
+                        }
+                    } else {
+                        if (format == Format.CSV) {
+                            out.put(RECEIPT_HEADER);
+                        }
+                        for (Iterator<Payment> it = Spliterators.iterator(receipts.get(p)); it.hasNext(); ) {
+                            writeReceipt(out, it.next());
+                            receiptCount.increment();
+                        }
+                    }
+                    bytes.add(out.finish());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new ExportSummary(files, folioCount.sum(), receiptCount.sum(), bytes.sum());
+    }
+
+    // Exactly one part per partition, some possibly empty; splitting the largest part each time keeps them even
+    private <T> List<Spliterator<T>> split(Collection<T> records) {
+        List<Spliterator<T>> parts = new ArrayList<>(partitions);
+        if (records instanceof List && records instanceof RandomAccess) {
+            List<T> list = (List<T>) records;
+            int size = list.size();
+            for (int p = 0; p < partitions; p++) {
+                parts.add(list.subList(slice(size, p), slice(size, p + 1)).spliterator());
+            }
+            return parts;
+        }
+
+        parts.add(records.spliterator());
+        while (parts.size() < partitions) {
+            int largest = 0;
+            for (int i = 1; i < parts.size(); i++) {
+                if (parts.get(i).estimateSize() > parts.get(largest).estimateSize()) {
+                    largest = i;
+                }
+            }
+            Spliterator<T> prefix = parts.get(largest).trySplit();
+            if (prefix == null) {
+                break;
+            }
+            parts.add(largest, prefix);
+        }
+        while (parts.size() < partitions) {
+            parts.add(Spliterators.emptySpliterator());
+        }
+        return parts;
+    }
+
+    private int slice(int size, int partition) {
+        return (int) ((long) size * partition / partitions);
+    }
+
+    private void writeFolio(RecordWriter out, Reservation reservation) throws IOException {
+        // Payments and early check-outs change these under the reservation's monitor; read them under it, as
+        // PaymentReconciler does, so the row is consistent with itself, and write once it is released
+        double totalAmount;
+        double amountPaid;
+        boolean paid;
+        Reservation.ReservationStatus status;
+        LocalDate checkOut;
+        double discount;
+        String discountReason;
+        double postedCharges;
+        String paymentMethod;
+        synchronized (reservation) {
+            totalAmount = reservation.getTotalAmount();
+            amountPaid = reservation.getAmountPaid();
+            paid = reservation.isPaid();
+            status = reservation.getStatus();
+            checkOut = reservation.getCheckOutDate();
+            discount = reservation.getDiscountAmount();
+            discountReason = reservation.getDiscountReason();
+            postedCharges = reservation.getPostedCharges();
+            paymentMethod = reservation.getPaymentMethod();
+        }
+        double remaining = totalAmount - amountPaid;
+        int nights = (int) (checkOut.toEpochDay() - reservation.getCheckInDate().toEpochDay());
+
+        if (format == Format.CSV) {
+            out.csv(reservation.getReservationId()).put(',');
+            out.csv(reservation.getGuestId()).put(',');
+            out.csv(reservation.getRoomNumber()).put(',');
+            out.date(reservation.getCheckInDate()).put(',');
+            out.date(checkOut).put(',');
+            out.integer(nights).put(',');
+            out.integer(reservation.getNumberOfGuests()).put(',');
+            out.put(status.name()).put(',');
+            out.money(totalAmount).put(',');
+            out.money(amountPaid).put(',');
+            out.money(remaining).put(',');
+            out.money(discount).put(',');
+            out.csv(discountReason).put(',');
+            out.money(postedCharges).put(',');
+            out.put(paid ? "Paid" : "Pending").put(',');
+            out.csv(paymentMethod).put(',');
+            out.csv(reservation.getSpecialRequests()).put('\n');
+        } else {
+            out.put("{\"reservationId\":").json(reservation.getReservationId());
+            out.put(",\"guestId\":").json(reservation.getGuestId());
+            out.put(",\"room\":").json(reservation.getRoomNumber());
+            out.put(",\"checkIn\":\"").date(reservation.getCheckInDate());
+            out.put("\",\"checkOut\":\"").date(checkOut);
+            out.put("\",\"nights\":").integer(nights);
+            out.put(",\"guests\":").integer(reservation.getNumberOfGuests());
+            out.put(",\"status\":\"").put(status.name());
+            out.put("\",\"totalAmount\":").money(totalAmount);
+            out.put(",\"amountPaid\":").money(amountPaid);
+            out.put(",\"remaining\":").money(remaining);
+            out.put(",\"discount\":").money(discount);
+            out.put(",\"discountReason\":").json(discountReason);
+            out.put(",\"postedCharges\":").money(postedCharges);
+            out.put(",\"paid\":").put(paid ? "true" : "false");
+            out.put(",\"paymentMethod\":").json(paymentMethod);
+            out.put(",\"specialRequests\":").json(reservation.getSpecialRequests());
+            out.put("}\n");
+        }
+    }
+
+    private void writeReceipt(RecordWriter out, Payment payment) throws IOException {
+        double amount = payment.getAmount();
+        double fee = payment.getProcessingFee();
+
+        if (format == Format.CSV) {
+            out.csv(payment.getPaymentId()).put(',');
+            out.csv(payment.getReservationId()).put(',');
+            out.csv(payment.getTransactionReference()).put(',');
+            out.dateTime(payment.getPaymentDateTime()).put(',');
+            out.money(amount).put(',');
+            out.money(fee).put(',');
+            out.money(amount + fee).put(',');
+            out.put(payment.getMethod().name()).put(',');
+            out.csv(payment.getCardNumber()).put(',');
+            out.csv(payment.getCardHolderName()).put(',');
+            out.put(payment.getStatus().name()).put(',');
+            out.csv(payment.getDescription()).put('\n');
+        } else {
+            out.put("{\"paymentId\":").json(payment.getPaymentId());
+            out.put(",\"reservationId\":").json(payment.getReservationId());
+            out.put(",\"transactionRef\":").json(payment.getTransactionReference());
+            out.put(",\"dateTime\":\"").dateTime(payment.getPaymentDateTime());
+            out.put("\",\"amount\":").money(amount);
+            out.put(",\"processingFee\":").money(fee);
+            out.put(",\"totalCharged\":").money(amount + fee);
+            out.put(",\"method\":\"").put(payment.getMethod().name());
+            out.put("\",\"cardNumber\":").json(payment.getCardNumber());
+            out.put(",\"cardHolder\":").json(payment.getCardHolderName());
+            out.put(",\"status\":\"").put(payment.getStatus().name());
+            out.put("\",\"description\":").json(payment.getDescription());
+            out.put("}\n");
+        }
+    }
+
+    // UTF-8 straight into a ByteBuffer that is written to the channel whenever it fills
+    private static class RecordWriter implements AutoCloseable {
+        private static final double MAX_FAST_MONEY = 1e13;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final byte[] digits;
+        private long written;
+        private boolean closed;
+
+        private RecordWriter(Path file, int bufferBytes) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+            this.digits = new byte[24];
+        }
+
+        private RecordWriter put(char c) throws IOException {
+            if (c < 0x80) {
+                ensureRemaining(1);
+                buffer.put((byte) c);
+            } else {
+                putCodePoint(c);
+            }
+            return this;
+        }
+
+        private RecordWriter put(String value) throws IOException {
+            int length = value.length();
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    ensureRemaining(1);
+                    buffer.put((byte) c);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    putCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+                } else {
+                    putCodePoint(c);
+                }
+            }
+            return this;
+        }
+
+        private void putCodePoint(int codePoint) throws IOException {
+            ensureRemaining(4);
+            if (codePoint < 0x80) {
+                buffer.put((byte) codePoint);
+            } else if (codePoint < 0x800) {
+                buffer.put((byte) (0xC0 | (codePoint >> 6)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (codePoint < 0x10000) {
+                buffer.put((byte) (0xE0 | (codePoint >> 12)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            }
+        }
+
+        // Quoted only when the value needs it, as spreadsheets expect
+        private RecordWriter csv(String value) throws IOException {
+            if (value == null) {
+                return this;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                return put(value);
+            }
+            put('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    put('"');
+                }
+                put(c);
+            }
+            return put('"');
+        }
+
+        private RecordWriter json(String value) throws IOException {
+            if (value == null) {
+                return put("null");
+            }
+            put('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        put("\\\"");
+                        break;
+                    case '\\':
+                        put("\\\\");
+                        break;
+                    case '\n':
+                        put("\\n");
+                        break;
+                    case '\r':
+                        put("\\r");
+                        break;
+                    case '\t':
+                        put("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            put(String.format("\\u%04x", (int) c));
+                        } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                            putCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+                        } else {
+                            put(c);
+                        }
+                }
+            }
+            return put('"');
+        }
+
+        private RecordWriter integer(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                return put(Long.toString(value));
+            }
+            boolean negative = value < 0;
+            int position = writeDigits(negative ? -value : value, 0);
+            if (negative) {
+                digits[--position] = '-';
+            }
+            return flushDigits(position);
+        }
+
+        // Same text as String.format("%.2f"), without the formatter
+        private RecordWriter money(double value) throws IOException {
+            if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FAST_MONEY) {
+                return put(String.format("%.2f", value));
+            }
+            double scaled = Math.abs(value) * 100;
+            // The formatter rounds the shortest decimal form of the double, which can land either side of a
+            // half cent that the binary value sits next to; leave those ties to it
+            double fraction = scaled - Math.floor(scaled);
+            if (Math.abs(fraction - 0.5) < scaled * 1e-14 + 1e-9) {
+                return put(String.format("%.2f", value));
+            }
+            int position = writeDigits((long) (scaled + 0.5), 2);
+            if (value < 0 || (value == 0 && 1 / value < 0)) {
+                digits[--position] = '-';
+            }
+            return flushDigits(position);
+        }
+
+        private RecordWriter date(LocalDate date) throws IOException {
+            if (date == null) {
+                return this;
+            }
+            padded(date.getYear(), 4).put('-');
+            padded(date.getMonthValue(), 2).put('-');
+            return padded(date.getDayOfMonth(), 2);
+        }
+
+        private RecordWriter dateTime(LocalDateTime dateTime) throws IOException {
+            if (dateTime == null) {
+                return this;
+            }
+            date(dateTime.toLocalDate()).put(' ');
+            padded(dateTime.getHour(), 2).put(':');
+            padded(dateTime.getMinute(), 2).put(':');
+            return padded(dateTime.getSecond(), 2);
+        }
+
+        private RecordWriter padded(int value, int width) throws IOException {
+            int position = writeDigits(value, 0);
+            while (digits.length - position < width) {
+                digits[--position] = '0';
+            }
+            return flushDigits(position);
+        }
+
+        // Digits right-aligned in the scratch array with an implied decimal point; returns where they start
+        private int writeDigits(long units, int decimals) {
+            int position = digits.length;
+            for (int i = 0; i < decimals; i++) {
+                digits[--position] = (byte) ('0' + units % 10);
+                units /= 10;
+            }
+            if (decimals > 0) {
+                digits[--position] = '.';
+            }
+            do {
+                digits[--position] = (byte) ('0' + units % 10);
+                units /= 10;
+            } while (units != 0);
+            return position;
+        }
+
+        private RecordWriter flushDigits(int position) throws IOException {
+            ensureRemaining(digits.length - position);
+            buffer.put(digits, position, digits.length - position);
+            return this;
+        }
+
+        private void ensureRemaining(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // Returns the bytes written to the file
+        private long finish() throws IOException {
+            close();
+            return written;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    flush();
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,33 @@
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Guest {
+    public enum LoyaltyTier {
+        MEMBER(0), SILVER(1000), GOLD(5000), PLATINUM(20000);
+
+        private final double minimumPoints;
+
+        LoyaltyTier(double minimumPoints) {
+            this.minimumPoints = minimumPoints;
+        }
+
+        public static LoyaltyTier forPoints(double points) {
+            LoyaltyTier[] tiers = values();
+            for (int i = tiers.length - 1; i > 0; i--) {
+                if (points >= tiers[i].minimumPoints) {
+                    return tiers[i];
+                }
+            }
+            return MEMBER;
+        }
+
+        public double getMinimumPoints() { return minimumPoints; }
+    }
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
     private String guestId;
     private String firstName;
     private String lastName;
@@ -16,7 +41,10 @@ public class Guest {
     private List<String> reservationIds;
     private boolean isVip;
     private double loyaltyPoints;
+    private LoyaltyTier loyaltyTier;
     private String preferredRoomType;
+    // 0 when the guest has no preference
+    private int preferredFloor;
 
     public Guest(String firstName, String lastName, String email, String phoneNumber) {
         this.guestId = generateGuestId();
@@ -27,6 +55,7 @@ public class Guest {
         this.reservationIds = new ArrayList<>();
         this.isVip = false;
         this.loyaltyPoints = 0.0;
+        this.loyaltyTier = LoyaltyTier.MEMBER;
         this.preferredRoomType = "STANDARD";
         this.nationality = "";
         this.address = "";
@@ -34,8 +63,30 @@ public class Guest {
         this.idNumber = "";
     }
 
+    Guest(String guestId, String firstName, String lastName, String email, String phoneNumber, String address,
+          LocalDate dateOfBirth, String idType, String idNumber, String nationality, List<String> reservationIds,
+          boolean isVip, double loyaltyPoints, String preferredRoomType, int preferredFloor) {
+        this.guestId = guestId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.phoneNumber = phoneNumber;
+        this.address = address != null ? address : "";
+        this.dateOfBirth = dateOfBirth;
+        this.idType = idType != null ? idType : "";
+        this.idNumber = idNumber != null ? idNumber : "";
+        this.nationality = nationality != null ? nationality : "";
+        this.reservationIds = new ArrayList<>(reservationIds);
+        this.isVip = isVip;
+        this.loyaltyPoints = loyaltyPoints;
+        this.loyaltyTier = LoyaltyTier.forPoints(loyaltyPoints);
+        this.preferredRoomType = preferredRoomType;
+        this.preferredFloor = preferredFloor;
+    }
+
     private String generateGuestId() {
-        return "GUEST" + System.currentTimeMillis() % 100000;
+        // The clock suffix alone repeats every 100 seconds, the sequence keeps ids unique
+        return "GUEST" + System.currentTimeMillis() % 100000 + "-" + SEQUENCE.incrementAndGet();
     }
 
     public void addReservation(String reservationId) {
@@ -53,8 +104,16 @@ public class Guest {
         checkVipStatus();
     }
 
+    // Returns true when the guest moved up a tier
+    public boolean updateLoyaltyTier() {
+        LoyaltyTier previous = loyaltyTier;
+        checkVipStatus();
+        return loyaltyTier.compareTo(previous) > 0;
+    }
+
     private void checkVipStatus() {
-        if (loyaltyPoints >= 1000 && !isVip) {
+        loyaltyTier = LoyaltyTier.forPoints(loyaltyPoints);
+        if (loyaltyTier != LoyaltyTier.MEMBER && !isVip) {
             this.isVip = true;
         }
     }
@@ -129,7 +188,9 @@ public class Guest {
     public List<String> getReservationIds() { return new ArrayList<>(reservationIds); }
     public boolean isVip() { return isVip; }
     public double getLoyaltyPoints() { return loyaltyPoints; }
+    public LoyaltyTier getLoyaltyTier() { return loyaltyTier; }
     public String getPreferredRoomType() { return preferredRoomType; }
+    public int getPreferredFloor() { return preferredFloor; }
 
     public void setFirstName(String firstName) { this.firstName = firstName; }
     public void setLastName(String lastName) { this.lastName = lastName; }
@@ -141,6 +202,10 @@ public class Guest {
     public void setIdNumber(String idNumber) { this.idNumber = idNumber; }
     public void setNationality(String nationality) { this.nationality = nationality; }
     public void setVip(boolean vip) { this.isVip = vip; }
-    public void setLoyaltyPoints(double loyaltyPoints) { this.loyaltyPoints = loyaltyPoints; }
+    public void setLoyaltyPoints(double loyaltyPoints) {
+        this.loyaltyPoints = loyaltyPoints;
+        checkVipStatus();
+    }
     public void setPreferredRoomType(String preferredRoomType) { this.preferredRoomType = preferredRoomType; }
+    public void setPreferredFloor(int preferredFloor) { this.preferredFloor = preferredFloor; }
 }
\ No newline at end of file
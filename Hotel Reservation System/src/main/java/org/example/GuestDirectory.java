@@ -0,0 +1,438 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class GuestDirectory {
+    // Trigram alphabet: 0 separator, 1-26 letters, 27-36 digits
+    private static final int ALPHABET = 37;
+    private static final double DEFAULT_MIN_SIMILARITY = 0.45;
+
+    // Sorted ascending; ordinals are appended in order, so inserts are almost always at the end
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int position = size == 0 || values[size - 1] < value ? size : insertionPoint(value);
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = value;
+            size++;
+        }
+
+        private void remove(int value) {
+            int position = Arrays.binarySearch(values, 0, size, value);
+            if (position >= 0) {
+                System.arraycopy(values, position + 1, values, position, size - position - 1);
+                size--;
+            }
+        }
+
+        private boolean contains(int value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        private int insertionPoint(int value) {
+            int position = Arrays.binarySearch(values, 0, size, value);
+            return position >= 0 ? position : -position - 1;
+        }
+    }
+
+    // Per-thread shared-trigram counters, stamped instead of cleared between searches
+    private static class Scratch {
+        private int[] stamps = new int[0];
+        private int[] counts = new int[0];
+        private int[] candidates = new int[64];
+        private int stamp;
+        private int[] grams = new int[64];
+    }
+
+    public static class Match {
+        private final Guest guest;
+        private final double similarity;
+
+        private Match(Guest guest, double similarity) {
+            this.guest = guest;
+            this.similarity = similarity;
+        }
+
+        public Guest getGuest() { return guest; }
+        public double getSimilarity() { return similarity; }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%.2f)", guest.getFullName(), similarity);
+        }
+    }
+
+    private final List<Guest> guests;
+    private final List<String> indexedEmails;
+    private final List<String> indexedPhones;
+    private final List<String> indexedNames;
+    private int[] gramCounts;
+    private final Map<String, Integer> byId;
+    private final Map<String, Integer> byEmail;
+    private final Map<String, IntList> byPhone;
+    private final IntList[] postings;
+    private final ReentrantReadWriteLock lock;
+    private final ThreadLocal<Scratch> scratch;
+
+    public GuestDirectory() {
+        this.guests = new ArrayList<>();
+        this.indexedEmails = new ArrayList<>();
+        this.indexedPhones = new ArrayList<>();
+        this.indexedNames = new ArrayList<>();
+        this.gramCounts = new int[1024];
+        this.byId = new HashMap<>();
+        this.byEmail = new HashMap<>();
+        this.byPhone = new HashMap<>();
+        this.postings = new IntList[ALPHABET * ALPHABET * ALPHABET];
+        this.lock = new ReentrantReadWriteLock();
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    // Returns the guest's ordinal, a dense index other components can use for array storage
+    public int add(Guest guest) {
+        lock.writeLock().lock();
+        try {
+            if (byId.containsKey(guest.getGuestId())) {
+                throw new IllegalArgumentException("Guest already registered: " + guest.getGuestId());
+            }
+            String email = normalizeEmail(guest.getEmail());
+            if (email != null && byEmail.containsKey(email)) {
+                throw new IllegalArgumentException("Email already registered: " + guest.getEmail());
+            }
+
+            int ordinal = guests.size();
+            guests.add(guest);
+            indexedEmails.add(null);
+            indexedPhones.add(null);
+            indexedNames.add(null);
+            if (ordinal == gramCounts.length) {
+                gramCounts = Arrays.copyOf(gramCounts, ordinal * 2);
+            }
+            byId.put(guest.getGuestId(), ordinal);
+            index(ordinal, guest);
+            return ordinal;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Call after changing a registered guest's name, email or phone
+    public void reindex(Guest guest) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = byId.get(guest.getGuestId());
+            if (ordinal == null) {
+                throw new IllegalArgumentException("Guest not registered: " + guest.getGuestId());
+            }
+            String email = normalizeEmail(guest.getEmail());
+            Integer owner = email == null ? null : byEmail.get(email);
+            if (owner != null && !owner.equals(ordinal)) {
+                throw new IllegalArgumentException("Email already registered: " + guest.getEmail());
+            }
+            unindex(ordinal);
+            index(ordinal, guest);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(int ordinal, Guest guest) {
+        String email = normalizeEmail(guest.getEmail());
+        if (email != null) {
+            byEmail.put(email, ordinal);
+        }
+        String phone = normalizePhone(guest.getPhoneNumber());
+        if (phone != null) {
+            byPhone.computeIfAbsent(phone, p -> new IntList()).add(ordinal);
+        }
+        String name = guest.getFullName();
+        int[] grams = trigrams(name, new int[64]);
+        for (int i = 1; i <= grams[0]; i++) {
+            if (postings[grams[i]] == null) {
+                postings[grams[i]] = new IntList();
+            }
+            postings[grams[i]].add(ordinal);
+        }
+        indexedEmails.set(ordinal, email);
+        indexedPhones.set(ordinal, phone);
+        indexedNames.set(ordinal, name);
+        gramCounts[ordinal] = grams[0];
+    }
+
+    private void unindex(int ordinal) {
+        String email = indexedEmails.get(ordinal);
+        if (email != null) {
+            byEmail.remove(email);
+        }
+        String phone = indexedPhones.get(ordinal);
+        if (phone != null) {
+            IntList owners = byPhone.get(phone);
+            owners.remove(ordinal);
+            if (owners.size == 0) {
+                byPhone.remove(phone);
+            }
+        }
+        int[] grams = trigrams(indexedNames.get(ordinal), new int[64]);
+        for (int i = 1; i <= grams[0]; i++) {
+            postings[grams[i]].remove(ordinal);
+        }
+    }
+
+    public Guest findById(String guestId) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = byId.get(guestId);
+            return ordinal == null ? null : guests.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Guest findByEmail(String email) {
+        String key = normalizeEmail(email);
+        if (key == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Integer ordinal = byEmail.get(key);
+            return ordinal == null ? null : guests.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Guest> findByPhone(String phoneNumber) {
+        String key = normalizePhone(phoneNumber);
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            IntList owners = byPhone.get(key);
+            if (owners == null) {
+                return Collections.emptyList();
+            }
+            List<Guest> result = new ArrayList<>(owners.size);
+            for (int i = 0; i < owners.size; i++) {
+                result.add(guests.get(owners.values[i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Match> searchByName(String name, int limit) {
+        return searchByName(name, limit, DEFAULT_MIN_SIMILARITY);
+    }
+
+    // Ranks guests by Dice similarity of name trigrams, so typos and swapped letters still match
+    public List<Match> searchByName(String name, int limit, double minSimilarity) {
+        if (limit <= 0 || name == null) {
+            return Collections.emptyList();
+        }
+
+        Scratch buffers = scratch.get();
+        int[] query = trigrams(name, buffers.grams);
+        buffers.grams = query;
+        int queryCount = query[0];
+        if (queryCount == 0) {
+            return Collections.emptyList();
+        }
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, (a, b) -> Double.compare(a.similarity, b.similarity));
+
+        lock.readLock().lock();
+        try {
+            if (buffers.stamps.length < guests.size()) {
+                int capacity = Math.max(guests.size(), buffers.stamps.length * 2);
+                buffers.stamps = new int[capacity];
+                buffers.counts = new int[capacity];
+                buffers.stamp = 0;
+            }
+            if (buffers.stamp == Integer.MAX_VALUE) {
+                Arrays.fill(buffers.stamps, 0);
+                buffers.stamp = 0;
+            }
+            int stamp = ++buffers.stamp;
+            int[] stamps = buffers.stamps;
+            int[] counts = buffers.counts;
+            int[] candidates = buffers.candidates;
+            int candidateCount = 0;
+
+            // Dice >= minSimilarity needs at least minShared common trigrams, so every match appears in
+            // one of the (queryCount - minShared + 1) rarest lists. Only those lists produce candidates;
+            // the common ones just add to counts, by binary search when there are few candidates.
+            int minShared = Math.max(1, (int) Math.ceil(minSimilarity * queryCount / (2 - minSimilarity)));
+            IntList[] lists = new IntList[queryCount];
+            for (int i = 0; i < queryCount; i++) {
+                lists[i] = postings[query[i + 1]];
+            }
+            Arrays.sort(lists, (a, b) -> Integer.compare(a == null ? 0 : a.size, b == null ? 0 : b.size));
+
+            int prefix = queryCount - minShared + 1;
+            for (int i = 0; i < queryCount; i++) {
+                IntList list = lists[i];
+                if (list == null) {
+                    continue;
+                }
+                if (i < prefix) {
+                    for (int k = 0; k < list.size; k++) {
+                        int ordinal = list.values[k];
+                        if (stamps[ordinal] != stamp) {
+                            stamps[ordinal] = stamp;
+                            counts[ordinal] = 1;
+                            if (candidateCount == candidates.length) {
+                                candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                                buffers.candidates = candidates;
+                            }
+                            candidates[candidateCount++] = ordinal;
+                        } else {
+                            counts[ordinal]++;
+                        }
+                    }
+                } else if ((long) candidateCount * (32 - Integer.numberOfLeadingZeros(list.size)) < list.size) {
+                    for (int k = 0; k < candidateCount; k++) {
+                        if (list.contains(candidates[k])) {
+                            counts[candidates[k]]++;
+                        }
+                    }
+                } else {
+                    for (int k = 0; k < list.size; k++) {
+                        int ordinal = list.values[k];
+                        if (stamps[ordinal] == stamp) {
+                            counts[ordinal]++;
+                        }
+                    }
+                }
+            }
+
+            for (int k = 0; k < candidateCount; k++) {
+                int ordinal = candidates[k];
+                double similarity = 2.0 * counts[ordinal] / (queryCount + gramCounts[ordinal]);
+                if (similarity >= minSimilarity && (best.size() < limit || similarity > best.peek().similarity)) {
+                    best.add(new Match(guests.get(ordinal), similarity));
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Match> result = new ArrayList<>(best);
+        result.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        return result;
+    }
+
+    // Distinct trigrams of the padded, folded name; element 0 holds the count
+    private static int[] trigrams(String name, int[] out) {
+        String folded = fold(name);
+        int length = folded.length() + 2;
+        if (out.length < length + 1) {
+            out = new int[length + 1];
+        }
+
+        int count = 0;
+        int previous2 = 0;
+        int previous1 = 0;
+        for (int i = 0; i < length; i++) {
+            int c = i < folded.length() ? code(folded.charAt(i)) : 0;
+            if (i > 0 && (previous1 != 0 || c != 0)) {
+                int gram = (previous2 * ALPHABET + previous1) * ALPHABET + c;
+                boolean seen = false;
+                for (int k = 1; k <= count; k++) {
+                    if (out[k] == gram) {
+                        seen = true;
+                        break;
+                    }
+                }
+                if (!seen) {
+                    out[++count] = gram;
+                }
+            }
+            previous2 = previous1;
+            previous1 = c;
+        }
+        out[0] = count;
+        return out;
+    }
+
+    private static String fold(String name) {
+        String lower = name == null ? "" : name.toLowerCase(Locale.ROOT).trim();
+        for (int i = 0; i < lower.length(); i++) {
+            if (lower.charAt(i) >= 0x80) {
+                return Normalizer.normalize(lower, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+            }
+        }
+        return lower;
+    }
+
+    private static int code(char c) {
+        if (c >= 'a' && c <= 'z') return c - 'a' + 1;
+        if (c >= '0' && c <= '9') return c - '0' + 27;
+        return 0;
+    }
+
+    private static String normalizeEmail(String email) {
+        if (email == null || email.isBlank()) {
+            return null;
+        }
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizePhone(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+        StringBuilder digits = new StringBuilder(phoneNumber.length());
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.length() == 0 ? null : digits.toString();
+    }
+
+    public int getOrdinal(Guest guest) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = byId.get(guest.getGuestId());
+            return ordinal == null ? -1 : ordinal;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Guest getByOrdinal(int ordinal) {
+        lock.readLock().lock();
+        try {
+            return guests.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return guests.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
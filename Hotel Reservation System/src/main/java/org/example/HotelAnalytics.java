@@ -0,0 +1,213 @@
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HotelAnalytics implements BookingService.BookingListener {
+    private static final int[] ALL_TYPES = new int[Room.RoomType.values().length];
+    private static final int[][] SINGLE_TYPE = new int[ALL_TYPES.length][];
+
+    static {
+        for (int t = 0; t < ALL_TYPES.length; t++) {
+            ALL_TYPES[t] = t;
+            SINGLE_TYPE[t] = new int[] {t};
+        }
+    }
+
+    // The nights, type and total counted for a reservation, so a change to any of them can be taken back out exactly
+    private static final class Stay {
+        private final int type;
+        private final long checkInDay;
+        private final long checkOutDay;
+        private final long totalCents;
+
+        private Stay(int type, Reservation reservation) {
+            this.type = type;
+            this.checkInDay = reservation.getCheckInDate().toEpochDay();
+            this.checkOutDay = reservation.getCheckOutDate().toEpochDay();
+            this.totalCents = Math.round(reservation.getTotalAmount() * 100);
+        }
+
+        private boolean matches(Reservation reservation) {
+            return checkInDay == reservation.getCheckInDate().toEpochDay()
+                    && checkOutDay == reservation.getCheckOutDate().toEpochDay()
+                    && totalCents == Math.round(reservation.getTotalAmount() * 100);
+        }
+    }
+
+    private final LocalDate baseDate;
+    private final long baseDay;
+    private final int days;
+    private final int[] roomsByType;
+
+    // Per type, Fenwick trees over the nights of rooms sold and revenue in cents: a booking touches O(log days) cells
+    // per night and a range query reads O(log days), however often bookings and queries interleave
+    private final long[][] soldTree;
+    private final long[][] revenueTree;
+    private final Map<String, Stay> recorded;
+
+    public HotelAnalytics(Collection<Room> inventory, LocalDate baseDate, int days) {
+        if (days <= 0) {
+            throw new IllegalArgumentException("Day count must be positive");
+        }
+
+        int types = Room.RoomType.values().length;
+        this.baseDate = baseDate;
+        this.baseDay = baseDate.toEpochDay();
+        this.days = days;
+        this.roomsByType = new int[types];
+        for (Room room : inventory) {
+            roomsByType[room.getType().ordinal()]++;
+        }
+        this.soldTree = new long[types][days + 1];
+        this.revenueTree = new long[types][days + 1];
+        this.recorded = new HashMap<>();
+    }
+
+    @Override
+    public void onBooked(Reservation reservation, Room room) {
+        record(reservation, room.getType(), 1);
+    }
+
+    @Override
+    public void onCancelled(Reservation reservation, Room room) {
+        record(reservation, room.getType(), -1);
+    }
+
+    @Override
+    public void onStatusChanged(Reservation reservation, Room room) {
+        refresh(reservation);
+    }
+
+    @Override
+    public void onCheckedOutEarly(Reservation reservation, Room room, LocalDate bookedCheckOut) {
+        refresh(reservation);
+    }
+
+    // Use a sign of -1 to take a reservation back out; revenue is spread evenly over its nights. Taking it out
+    // removes what was counted for it, even if its dates or total have changed since
+    public synchronized void record(Reservation reservation, Room.RoomType type, int sign) {
+        Stay previous = sign > 0
+                ? recorded.put(reservation.getReservationId(), new Stay(type.ordinal(), reservation))
+                : recorded.remove(reservation.getReservationId());
+        if (previous != null) {
+            add(previous, -1);
+        }
+        if (sign > 0) {
+            add(recorded.get(reservation.getReservationId()), 1);
+        }
+    }
+
+    // Call after changing a counted reservation's dates or total, e.g. a discount applied after booking
+    public synchronized void refresh(Reservation reservation) {
+        Stay previous = recorded.get(reservation.getReservationId());
+        if (previous == null || previous.matches(reservation)) {
+            return;
+        }
+        Stay current = new Stay(previous.type, reservation);
+        recorded.put(reservation.getReservationId(), current);
+        add(previous, -1);
+        add(current, 1);
+    }
+
+    private void add(Stay stay, int sign) {
+        int nights = (int) (stay.checkOutDay - stay.checkInDay);
+        if (nights <= 0) {
+            return;
+        }
+
+        long perNight = stay.totalCents / nights;
+        long remainder = stay.totalCents - perNight * nights;
+        for (int n = 0; n < nights; n++) {
+            long offset = stay.checkInDay + n - baseDay;
+            if (offset < 0 || offset >= days) {
+                continue;
+            }
+            int d = (int) offset;
+            update(soldTree[stay.type], d, sign);
+            update(revenueTree[stay.type], d, sign * (perNight + (n < remainder ? 1 : 0)));
+        }
+    }
+
+    public synchronized long getRoomsSold(Room.RoomType type, LocalDate from, LocalDate to) {
+        long total = 0;
+        for (int t : types(type)) {
+            total += rangeSum(soldTree[t], from, to);
+        }
+        return total;
+    }
+
+    public synchronized double getRevenue(Room.RoomType type, LocalDate from, LocalDate to) {
+        long total = 0;
+        for (int t : types(type)) {
+            total += rangeSum(revenueTree[t], from, to);
+        }
+        return total / 100.0;
+    }
+
+    public synchronized long getRoomNightsAvailable(Room.RoomType type, LocalDate from, LocalDate to) {
+        long nights = clippedEnd(to) - clippedStart(from);
+        if (nights <= 0) {
+            return 0;
+        }
+        long rooms = 0;
+        for (int t : types(type)) {
+            rooms += roomsByType[t];
+        }
+        return rooms * nights;
+    }
+
+    public double getOccupancyRate(Room.RoomType type, LocalDate from, LocalDate to) {
+        long available = getRoomNightsAvailable(type, from, to);
+        return available == 0 ? 0.0 : (double) getRoomsSold(type, from, to) / available;
+    }
+
+    // Average daily rate: revenue per room-night sold
+    public double getAverageDailyRate(Room.RoomType type, LocalDate from, LocalDate to) {
+        long roomsSold = getRoomsSold(type, from, to);
+        return roomsSold == 0 ? 0.0 : getRevenue(type, from, to) / roomsSold;
+    }
+
+    // Revenue per available room-night
+    public double getRevPar(Room.RoomType type, LocalDate from, LocalDate to) {
+        long available = getRoomNightsAvailable(type, from, to);
+        return available == 0 ? 0.0 : getRevenue(type, from, to) / available;
+    }
+
+    private long rangeSum(long[] tree, LocalDate from, LocalDate to) {
+        int start = clippedStart(from);
+        int end = clippedEnd(to);
+        return end <= start ? 0 : prefixSum(tree, end) - prefixSum(tree, start);
+    }
+
+    private static void update(long[] tree, int night, long delta) {
+        for (int i = night + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // Sum over the first count nights
+    private static long prefixSum(long[] tree, int count) {
+        long sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private int clippedStart(LocalDate from) {
+        return (int) Math.max(0, Math.min(days, from.toEpochDay() - baseDay));
+    }
+
+    private int clippedEnd(LocalDate to) {
+        return (int) Math.max(0, Math.min(days, to.toEpochDay() - baseDay));
+    }
+
+    private static int[] types(Room.RoomType type) {
+        return type == null ? ALL_TYPES : SINGLE_TYPE[type.ordinal()];
+    }
+
+    public LocalDate getBaseDate() { return baseDate; }
+    public int getDays() { return days; }
+    public int getRoomCount(Room.RoomType type) { return roomsByType[type.ordinal()]; }
+}
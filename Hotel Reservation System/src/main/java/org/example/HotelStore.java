@@ -0,0 +1,648 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// Write-ahead log of full-entity upserts with group commit, plus snapshots that let old log segments go
+public class HotelStore implements BookingService.BookingListener, AutoCloseable {
+    private static final int SNAPSHOT_MAGIC = 0x48534E31;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_BATCH = 4096;
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte GUEST = 1;
+    private static final byte RESERVATION = 2;
+    private static final byte PAYMENT = 3;
+    private static final byte ROOM = 4;
+
+    public static class RecoveredState {
+        private final Map<String, Guest> guests = new LinkedHashMap<>();
+        private final Map<String, Reservation> reservations = new LinkedHashMap<>();
+        private final Map<String, Payment> payments = new LinkedHashMap<>();
+        private final Map<String, Room> rooms = new LinkedHashMap<>();
+        private long recordsReplayed;
+
+        public Map<String, Guest> getGuests() { return guests; }
+        public Map<String, Reservation> getReservations() { return reservations; }
+        public Map<String, Payment> getPayments() { return payments; }
+        public Map<String, Room> getRooms() { return rooms; }
+        public long getRecordsReplayed() { return recordsReplayed; }
+    }
+
+    private static class PendingWrite {
+        private final byte[] frame;
+        private final CompletableFuture<Void> done;
+
+        private PendingWrite(byte[] frame) {
+            this.frame = frame;
+            this.done = new CompletableFuture<>();
+        }
+    }
+
+    private final Path directory;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Object segmentLock;
+    private final Thread writer;
+    private FileChannel segment;
+    private long segmentNumber;
+    private long batches;
+    private long recordsWritten;
+    // Listener-driven saves are fire and forget, so failures are counted here rather than left in dropped futures
+    private final LongAdder failedRecords = new LongAdder();
+    private volatile boolean closed;
+
+    public HotelStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.queue = new LinkedBlockingQueue<>();
+        this.segmentLock = new Object();
+
+        long last = 0;
+        for (long number : listSegments(directory).keySet()) {
+            last = Math.max(last, number);
+        }
+        // Never append after a possibly torn tail; recovery reads up to the first bad frame of each segment
+        openSegment(last + 1);
+
+        this.writer = new Thread(this::writeLoop, "hotel-store-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public CompletableFuture<Void> saveGuest(Guest guest) {
+        return append(GUEST, out -> writeGuest(out, guest));
+    }
+
+    public CompletableFuture<Void> saveReservation(Reservation reservation) {
+        return append(RESERVATION, out -> writeReservation(out, reservation));
+    }
+
+    public CompletableFuture<Void> savePayment(Payment payment) {
+        return append(PAYMENT, out -> writePayment(out, payment));
+    }
+
+    public CompletableFuture<Void> saveRoom(Room room) {
+        return append(ROOM, out -> writeRoom(out, room));
+    }
+
+    // Queued rather than awaited: listeners run under the booking lock and must not wait on the disk
+    @Override
+    public void onBooked(Reservation reservation, Room room) {
+        saveReservation(reservation);
+    }
+
+    // Restored reservations are already in the log
+    @Override
+    public void onRestored(Reservation reservation, Room room) {
+    }
+
+    @Override
+    public void onCancelled(Reservation reservation, Room room) {
+        saveReservation(reservation);
+    }
+
+    @Override
+    public void onMoved(Reservation reservation, Room from, Room to) {
+        saveReservation(reservation);
+    }
+
+    @Override
+    public void onStatusChanged(Reservation reservation, Room room) {
+        saveReservation(reservation);
+        saveRoom(room);
+    }
+
+    @Override
+    public void onPaymentApplied(Reservation reservation, Room room) {
+        synchronized (reservation) {
+            saveReservation(reservation);
+        }
+    }
+
+    // Encoded and queued under the guest's monitor, so the last record queued holds every reservation added so far
+    @Override
+    public void onGuestChanged(Guest guest) {
+        synchronized (guest) {
+            saveGuest(guest);
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private CompletableFuture<Void> append(byte type, RecordWriter body) {
+        if (closed) {
+            failedRecords.increment();
+            return CompletableFuture.failedFuture(new IllegalStateException("Store is closed"));
+        }
+        PendingWrite write;
+        try {
+            write = new PendingWrite(frame(type, body));
+        } catch (IOException e) {
+            failedRecords.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+        queue.add(write);
+        return write.done;
+    }
+
+    // [length][crc32][type + body]; the entity is encoded on the caller's thread so the state logged is the state now
+    private static byte[] frame(byte type, RecordWriter body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(type);
+        body.write(out);
+        out.flush();
+
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 8;
+        if (length > MAX_RECORD_BYTES) {
+            throw new IOException("Record of " + length + " bytes is over the " + MAX_RECORD_BYTES + " byte limit");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(frame, 8, length);
+        ByteBuffer header = ByteBuffer.wrap(frame);
+        header.putInt(length);
+        header.putInt((int) crc.getValue());
+        return frame;
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.take();
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                if (queue.isEmpty()) {
+                    break;
+                }
+                queue.drainTo(batch, MAX_BATCH);
+            }
+
+            try {
+                synchronized (segmentLock) {
+                    List<ByteBuffer> buffers = new ArrayList<>(batch.size());
+                    for (PendingWrite write : batch) {
+                        // Sync markers carry no frame; they complete with the records queued ahead of them
+                        if (write.frame != null) {
+                            buffers.add(ByteBuffer.wrap(write.frame));
+                        }
+                    }
+                    if (!buffers.isEmpty()) {
+                        ByteBuffer[] frames = buffers.toArray(new ByteBuffer[0]);
+                        while (frames[frames.length - 1].hasRemaining()) {
+                            segment.write(frames);
+                        }
+                        // One fsync covers every record that arrived while the previous one was running
+                        segment.force(false);
+                        batches++;
+                        recordsWritten += frames.length;
+                    }
+                }
+                for (PendingWrite write : batch) {
+                    write.done.complete(null);
+                }
+            } catch (IOException e) {
+                for (PendingWrite write : batch) {
+                    if (write.frame != null) {
+                        failedRecords.increment();
+                    }
+                    write.done.completeExceptionally(new UncheckedIOException(e));
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // Waits until everything queued so far is on disk
+    public void sync() {
+        if (closed) {
+            return;
+        }
+        PendingWrite marker = new PendingWrite(null);
+        queue.add(marker);
+        marker.done.join();
+    }
+
+    // Starts a new log segment, writes the given state as the snapshot, then drops the segments it covers.
+    // Records appended while the snapshot is written land in the new segment and are replayed over it.
+    public void snapshot(Collection<Guest> guests, Collection<Reservation> reservations,
+                         Collection<Payment> payments, Collection<Room> rooms) throws IOException {
+        sync();
+        long firstLiveSegment;
+        synchronized (segmentLock) {
+            segment.force(true);
+            segment.close();
+            openSegment(segmentNumber + 1);
+            firstLiveSegment = segmentNumber;
+        }
+
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            header.putInt(SNAPSHOT_MAGIC).putLong(firstLiveSegment).flip();
+            writeFully(channel, header);
+
+            for (Room room : rooms) {
+                writeFully(channel, ByteBuffer.wrap(frame(ROOM, out -> writeRoom(out, room))));
+            }
+            for (Guest guest : guests) {
+                writeFully(channel, ByteBuffer.wrap(frame(GUEST, out -> writeGuest(out, guest))));
+            }
+            for (Reservation reservation : reservations) {
+                writeFully(channel, ByteBuffer.wrap(frame(RESERVATION, out -> writeReservation(out, reservation))));
+            }
+            for (Payment payment : payments) {
+                writeFully(channel, ByteBuffer.wrap(frame(PAYMENT, out -> writePayment(out, payment))));
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Map.Entry<Long, Path> entry : listSegments(directory).entrySet()) {
+            if (entry.getKey() < firstLiveSegment) {
+                Files.deleteIfExists(entry.getValue());
+            }
+        }
+    }
+
+    // Snapshot first, then every live segment in order; later upserts of the same id replace earlier ones
+    public static RecoveredState recover(Path directory) throws IOException {
+        RecoveredState state = new RecoveredState();
+        long firstLiveSegment = 0;
+
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a hotel snapshot: " + snapshot);
+                }
+                firstLiveSegment = in.readLong();
+                replay(in, state, true);
+            }
+        }
+
+        if (Files.isDirectory(directory)) {
+            for (Map.Entry<Long, Path> entry : listSegments(directory).entrySet()) {
+                if (entry.getKey() >= firstLiveSegment) {
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry.getValue())))) {
+                        replay(in, state, false);
+                    }
+                }
+            }
+        }
+        return state;
+    }
+
+    private static void replay(DataInputStream in, RecoveredState state, boolean strict) throws IOException {
+        CRC32 crc = new CRC32();
+        while (true) {
+            int length;
+            int checksum;
+            byte[] body;
+            try {
+                length = in.readInt();
+                checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    throw new EOFException("Bad record length " + length);
+                }
+                body = new byte[length];
+                in.readFully(body);
+            } catch (EOFException e) {
+                // A clean end, or the torn tail of the last batch before a crash
+                return;
+            }
+
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                if (strict) {
+                    throw new IOException("Corrupt snapshot record");
+                }
+                return;
+            }
+            apply(new DataInputStream(new ByteArrayInputStream(body)), state);
+            state.recordsReplayed++;
+        }
+    }
+
+    private static void apply(DataInputStream in, RecoveredState state) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case GUEST: {
+                Guest guest = readGuest(in);
+                state.guests.put(guest.getGuestId(), guest);
+                break;
+            }
+            case RESERVATION: {
+                Reservation reservation = readReservation(in);
+                state.reservations.put(reservation.getReservationId(), reservation);
+                break;
+            }
+            case PAYMENT: {
+                Payment payment = readPayment(in);
+                state.payments.put(payment.getPaymentId(), payment);
+                break;
+            }
+            case ROOM: {
+                Room room = readRoom(in);
+                state.rooms.put(room.getRoomNumber(), room);
+                break;
+            }
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static void writeGuest(DataOutputStream out, Guest guest) throws IOException {
+        writeString(out, guest.getGuestId());
+        writeString(out, guest.getFirstName());
+        writeString(out, guest.getLastName());
+        writeString(out, guest.getEmail());
+        writeString(out, guest.getPhoneNumber());
+        writeString(out, guest.getAddress());
+        writeDate(out, guest.getDateOfBirth());
+        writeString(out, guest.getIdType());
+        writeString(out, guest.getIdNumber());
+        writeString(out, guest.getNationality());
+        List<String> reservationIds = guest.getReservationIds();
+        out.writeInt(reservationIds.size());
+        for (String id : reservationIds) {
+            writeString(out, id);
+        }
+        out.writeBoolean(guest.isVip());
+        out.writeDouble(guest.getLoyaltyPoints());
+        writeString(out, guest.getPreferredRoomType());
+        out.writeInt(guest.getPreferredFloor());
+    }
+
+    private static Guest readGuest(DataInputStream in) throws IOException {
+        String guestId = readString(in);
+        String firstName = readString(in);
+        String lastName = readString(in);
+        String email = readString(in);
+        String phoneNumber = readString(in);
+        String address = readString(in);
+        LocalDate dateOfBirth = readDate(in);
+        String idType = readString(in);
+        String idNumber = readString(in);
+        String nationality = readString(in);
+        int count = in.readInt();
+        List<String> reservationIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            reservationIds.add(readString(in));
+        }
+        boolean isVip = in.readBoolean();
+        double loyaltyPoints = in.readDouble();
+        String preferredRoomType = readString(in);
+        int preferredFloor = in.readInt();
+        return new Guest(guestId, firstName, lastName, email, phoneNumber, address, dateOfBirth, idType, idNumber,
+                nationality, reservationIds, isVip, loyaltyPoints, preferredRoomType, preferredFloor);
+    }
+
+    private static void writeReservation(DataOutputStream out, Reservation reservation) throws IOException {
+        writeString(out, reservation.getReservationId());
+        writeString(out, reservation.getGuestId());
+        writeString(out, reservation.getRoomNumber());
+        writeDate(out, reservation.getCheckInDate());
+        writeDate(out, reservation.getCheckOutDate());
+        out.writeInt(reservation.getNumberOfGuests());
+        out.writeByte(reservation.getStatus().ordinal());
+        out.writeDouble(reservation.getTotalAmount());
+        out.writeDouble(reservation.getAmountPaid());
+        writeDateTime(out, reservation.getBookingDateTime());
+        writeString(out, reservation.getSpecialRequests());
+        out.writeBoolean(reservation.isPaid());
+        writeString(out, reservation.getPaymentMethod());
+        out.writeDouble(reservation.getDiscountAmount());
+        writeString(out, reservation.getDiscountReason());
+        out.writeDouble(reservation.getPostedCharges());
+        writeDate(out, reservation.getLastPostedDate());
+        out.writeBoolean(reservation.isLoyaltyCredited());
+    }
+
+    private static Reservation readReservation(DataInputStream in) throws IOException {
+        String reservationId = readString(in);
+        String guestId = readString(in);
+        String roomNumber = readString(in);
+        LocalDate checkIn = readDate(in);
+        LocalDate checkOut = readDate(in);
+        int numberOfGuests = in.readInt();
+        Reservation.ReservationStatus status = Reservation.ReservationStatus.values()[in.readByte()];
+        double totalAmount = in.readDouble();
+        double amountPaid = in.readDouble();
+        LocalDateTime bookingDateTime = readDateTime(in);
+        String specialRequests = readString(in);
+        boolean isPaid = in.readBoolean();
+        String paymentMethod = readString(in);
+        double discountAmount = in.readDouble();
+        String discountReason = readString(in);
+        double postedCharges = in.readDouble();
+        LocalDate lastPostedDate = readDate(in);
+        Reservation reservation = new Reservation(reservationId, guestId, roomNumber, checkIn, checkOut, numberOfGuests,
+                status, totalAmount, amountPaid, bookingDateTime, specialRequests, isPaid, paymentMethod, discountAmount,
+                discountReason, postedCharges, lastPostedDate);
+        reservation.setLoyaltyCredited(in.readBoolean());
+        return reservation;
+    }
+
+    private static void writePayment(DataOutputStream out, Payment payment) throws IOException {
+        writeString(out, payment.getPaymentId());
+        writeString(out, payment.getReservationId());
+        out.writeDouble(payment.getAmount());
+        out.writeByte(payment.getMethod().ordinal());
+        out.writeByte(payment.getStatus().ordinal());
+        writeDateTime(out, payment.getPaymentDateTime());
+        writeString(out, payment.getTransactionReference());
+        writeString(out, payment.getCardNumber());
+        writeString(out, payment.getCardHolderName());
+        writeString(out, payment.getDescription());
+        out.writeDouble(payment.getProcessingFee());
+    }
+
+    private static Payment readPayment(DataInputStream in) throws IOException {
+        String paymentId = readString(in);
+        String reservationId = readString(in);
+        double amount = in.readDouble();
+        Payment.PaymentMethod method = Payment.PaymentMethod.values()[in.readByte()];
+        Payment.PaymentStatus status = Payment.PaymentStatus.values()[in.readByte()];
+        LocalDateTime paymentDateTime = readDateTime(in);
+        String transactionReference = readString(in);
+        String cardNumber = readString(in);
+        String cardHolderName = readString(in);
+        String description = readString(in);
+        double processingFee = in.readDouble();
+        return new Payment(paymentId, reservationId, amount, method, status, paymentDateTime, transactionReference,
+                cardNumber, cardHolderName, description, processingFee);
+    }
+
+    private static void writeRoom(DataOutputStream out, Room room) throws IOException {
+        writeString(out, room.getRoomNumber());
+        out.writeByte(room.getType().ordinal());
+        out.writeInt(room.getCapacity());
+        out.writeInt(room.getFloor());
+        writeDate(out, room.getCalendar().getBaseDate());
+        out.writeByte(room.getStatus().ordinal());
+        out.writeBoolean(room.hasWifi());
+        out.writeBoolean(room.hasAirConditioning());
+        out.writeBoolean(room.hasBalcony());
+        out.writeDouble(room.getPricePerNight());
+        writeString(out, room.getDescription());
+    }
+
+    private static Room readRoom(DataInputStream in) throws IOException {
+        String roomNumber = readString(in);
+        Room.RoomType type = Room.RoomType.values()[in.readByte()];
+        int capacity = in.readInt();
+        int floor = in.readInt();
+        // The original start, so nights of stays already under way are tracked again on restore
+        Room room = new Room(roomNumber, type, capacity, floor, readDate(in));
+        room.setStatus(Room.RoomStatus.values()[in.readByte()]);
+        room.setHasWifi(in.readBoolean());
+        room.setHasAirConditioning(in.readBoolean());
+        room.setHasBalcony(in.readBoolean());
+        room.setPricePerNight(in.readDouble());
+        room.setDescription(readString(in));
+        return room;
+    }
+
+    // Length-prefixed UTF-8, -1 for null; writeUTF would cap a field at 64KB of encoded text
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_RECORD_BYTES) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeLong(date == null ? Long.MIN_VALUE : date.toEpochDay());
+    }
+
+    private static LocalDate readDate(DataInputStream in) throws IOException {
+        long day = in.readLong();
+        return day == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(day);
+    }
+
+    private static void writeDateTime(DataOutputStream out, LocalDateTime dateTime) throws IOException {
+        out.writeBoolean(dateTime != null);
+        if (dateTime != null) {
+            out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(dateTime.getNano());
+        }
+    }
+
+    private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        long seconds = in.readLong();
+        int nanos = in.readInt();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segment = FileChannel.open(segmentPath(directory, number), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    segments.put(Long.parseLong(number), file);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        sync();
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (segmentLock) {
+            segment.close();
+        }
+    }
+
+    public Path getDirectory() { return directory; }
+    public long getSegmentNumber() { synchronized (segmentLock) { return segmentNumber; } }
+    public long getBatchCount() { synchronized (segmentLock) { return batches; } }
+    public long getRecordsWritten() { synchronized (segmentLock) { return recordsWritten; } }
+    public long getFailedRecordCount() { return failedRecords.sum(); }
+}
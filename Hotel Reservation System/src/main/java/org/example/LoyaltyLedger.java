@@ -0,0 +1,223 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+public class LoyaltyLedger {
+    public enum AccrualReason {
+        STAY, BONUS, ADJUSTMENT
+    }
+
+    public static class RunSummary {
+        private final int entries;
+        private final int guestsUpdated;
+        private final long tierUpgrades;
+        private final double pointsAwarded;
+
+        private RunSummary(int entries, int guestsUpdated, long tierUpgrades, double pointsAwarded) {
+            this.entries = entries;
+            this.guestsUpdated = guestsUpdated;
+            this.tierUpgrades = tierUpgrades;
+            this.pointsAwarded = pointsAwarded;
+        }
+
+        public int getEntries() { return entries; }
+        public int getGuestsUpdated() { return guestsUpdated; }
+        public long getTierUpgrades() { return tierUpgrades; }
+        public double getPointsAwarded() { return pointsAwarded; }
+
+        @Override
+        public String toString() {
+            return String.format("LoyaltyRun{entries=%d, guests=%d, upgrades=%d, points=%.0f}",
+                    entries, guestsUpdated, tierUpgrades, pointsAwarded);
+        }
+    }
+
+    private final GuestDirectory directory;
+    private final double pointsPerDollar;
+
+    // Accruals waiting for the next run, as parallel columns
+    private int[] pendingOrdinals;
+    private double[] pendingPoints;
+    private int[] pendingDays;
+    private byte[] pendingReasons;
+    private int pendingCount;
+
+    // Applied history: one row per entry, rows of a guest chained newest-first through previousEntry
+    private int[] historyDays;
+    private double[] historyPoints;
+    private byte[] historyReasons;
+    private int[] previousEntry;
+    private int historyCount;
+    private int[] latestEntry;
+
+    public LoyaltyLedger(GuestDirectory directory, double pointsPerDollar) {
+        this.directory = directory;
+        this.pointsPerDollar = pointsPerDollar;
+        this.pendingOrdinals = new int[1024];
+        this.pendingPoints = new double[1024];
+        this.pendingDays = new int[1024];
+        this.pendingReasons = new byte[1024];
+        this.historyDays = new int[1024];
+        this.historyPoints = new double[1024];
+        this.historyReasons = new byte[1024];
+        this.previousEntry = new int[1024];
+        this.latestEntry = new int[0];
+    }
+
+    public void accrue(Guest guest, double points, AccrualReason reason, LocalDate date) {
+        int ordinal = directory.getOrdinal(guest);
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Guest not registered: " + guest.getGuestId());
+        }
+        accrue(ordinal, points, reason, (int) date.toEpochDay());
+    }
+
+    // Points for a checked-out stay, based on what was actually paid; each reservation is credited at most once
+    public boolean accrueStay(Reservation reservation, LocalDate date) {
+        if (reservation.getStatus() != Reservation.ReservationStatus.CHECKED_OUT) {
+            return false;
+        }
+        Guest guest = directory.findById(reservation.getGuestId());
+        double points = Math.floor(reservation.getAmountPaid() * pointsPerDollar);
+        if (guest == null || points <= 0) {
+            return false;
+        }
+        return accrueOnce(reservation, directory.getOrdinal(guest), points, (int) date.toEpochDay());
+    }
+
+    public int accrueStays(Collection<Reservation> reservations, LocalDate date) {
+        int accrued = 0;
+        for (Reservation reservation : reservations) {
+            if (accrueStay(reservation, date)) {
+                accrued++;
+            }
+        }
+        return accrued;
+    }
+
+    // The credited flag lives on the reservation, so the ledger keeps no per-stay state; it is only ever set here,
+    // under the ledger's lock
+    private synchronized boolean accrueOnce(Reservation reservation, int ordinal, double points, int day) {
+        if (reservation.isLoyaltyCredited()) {
+            return false;
+        }
+        reservation.setLoyaltyCredited(true);
+        accrue(ordinal, points, AccrualReason.STAY, day);
+        return true;
+    }
+
+    private synchronized void accrue(int ordinal, double points, AccrualReason reason, int day) {
+        if (pendingCount == pendingOrdinals.length) {
+            int capacity = pendingCount * 2;
+            pendingOrdinals = Arrays.copyOf(pendingOrdinals, capacity);
+            pendingPoints = Arrays.copyOf(pendingPoints, capacity);
+            pendingDays = Arrays.copyOf(pendingDays, capacity);
+            pendingReasons = Arrays.copyOf(pendingReasons, capacity);
+        }
+        pendingOrdinals[pendingCount] = ordinal;
+        pendingPoints[pendingCount] = points;
+        pendingDays[pendingCount] = day;
+        pendingReasons[pendingCount] = (byte) reason.ordinal();
+        pendingCount++;
+    }
+
+    // Moves pending accruals into the history and credits each touched guest once, in parallel
+    public synchronized RunSummary applyPending() {
+        int entries = pendingCount;
+        int guestCount = directory.size();
+        if (latestEntry.length < guestCount) {
+            int previous = latestEntry.length;
+            latestEntry = Arrays.copyOf(latestEntry, Math.max(guestCount, previous * 2));
+            Arrays.fill(latestEntry, previous, latestEntry.length, -1);
+        }
+        ensureHistoryCapacity(historyCount + entries);
+
+        double[] totals = new double[guestCount];
+        boolean[] seen = new boolean[guestCount];
+        int[] touched = new int[Math.min(entries, guestCount)];
+        int touchedCount = 0;
+        double awarded = 0;
+
+        for (int i = 0; i < entries; i++) {
+            int ordinal = pendingOrdinals[i];
+            int row = historyCount++;
+            historyDays[row] = pendingDays[i];
+            historyPoints[row] = pendingPoints[i];
+            historyReasons[row] = pendingReasons[i];
+            previousEntry[row] = latestEntry[ordinal];
+            latestEntry[ordinal] = row;
+
+            if (!seen[ordinal]) {
+                seen[ordinal] = true;
+                touched[touchedCount++] = ordinal;
+            }
+            totals[ordinal] += pendingPoints[i];
+            awarded += pendingPoints[i];
+        }
+        pendingCount = 0;
+
+        LongAdder upgrades = new LongAdder();
+        int[] guests = touched;
+        IntStream.range(0, touchedCount).parallel().forEach(i -> {
+            int ordinal = guests[i];
+            Guest guest = directory.getByOrdinal(ordinal);
+            synchronized (guest) {
+                Guest.LoyaltyTier previous = guest.getLoyaltyTier();
+                guest.setLoyaltyPoints(Math.max(0, guest.getLoyaltyPoints() + totals[ordinal]));
+                if (guest.getLoyaltyTier().compareTo(previous) > 0) {
+                    upgrades.increment();
+                }
+            }
+        });
+
+        return new RunSummary(entries, touchedCount, upgrades.sum(), awarded);
+    }
+
+    // Re-derives every guest's tier from their points, e.g. after tier thresholds change
+    public long recalculateTiers() {
+        LongAdder upgrades = new LongAdder();
+        IntStream.range(0, directory.size()).parallel().forEach(ordinal -> {
+            Guest guest = directory.getByOrdinal(ordinal);
+            synchronized (guest) {
+                if (guest.updateLoyaltyTier()) {
+                    upgrades.increment();
+                }
+            }
+        });
+        return upgrades.sum();
+    }
+
+    // Copies the guest's applied entries, newest first; returns how many were written
+    public synchronized int getHistory(Guest guest, LocalDate[] datesOut, double[] pointsOut, AccrualReason[] reasonsOut) {
+        int ordinal = directory.getOrdinal(guest);
+        if (ordinal < 0 || ordinal >= latestEntry.length) {
+            return 0;
+        }
+        AccrualReason[] reasons = AccrualReason.values();
+        int limit = Math.min(datesOut.length, Math.min(pointsOut.length, reasonsOut.length));
+        int count = 0;
+        for (int row = latestEntry[ordinal]; row >= 0 && count < limit; row = previousEntry[row]) {
+            datesOut[count] = LocalDate.ofEpochDay(historyDays[row]);
+            pointsOut[count] = historyPoints[row];
+            reasonsOut[count] = reasons[historyReasons[row]];
+            count++;
+        }
+        return count;
+    }
+
+    private void ensureHistoryCapacity(int rows) {
+        if (rows > historyDays.length) {
+            int capacity = Math.max(rows, historyDays.length * 2);
+            historyDays = Arrays.copyOf(historyDays, capacity);
+            historyPoints = Arrays.copyOf(historyPoints, capacity);
+            historyReasons = Arrays.copyOf(historyReasons, capacity);
+            previousEntry = Arrays.copyOf(previousEntry, capacity);
+        }
+    }
+
+    public synchronized int getPendingCount() { return pendingCount; }
+    public synchronized int getHistorySize() { return historyCount; }
+    public double getPointsPerDollar() { return pointsPerDollar; }
+}
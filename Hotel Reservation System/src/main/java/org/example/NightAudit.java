@@ -0,0 +1,183 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+public class NightAudit implements BookingService.BookingListener {
+    // Anything that tracks a window of nights from the business date on and drops the nights the date has passed
+    public interface Rollover {
+        // Returns the start of the window after the move
+        LocalDate advanceTo(LocalDate businessDate);
+    }
+
+    public static class AuditReport {
+        private final LocalDate businessDate;
+        private final int reservationsExamined;
+        private final long noShows;
+        private final long chargesPosted;
+        private final double amountPosted;
+        private final List<Reservation> unpaidBalances;
+        private final List<Reservation> overstays;
+
+        private AuditReport(LocalDate businessDate, int reservationsExamined, long noShows, long chargesPosted,
+                            double amountPosted, List<Reservation> unpaidBalances, List<Reservation> overstays) {
+            this.businessDate = businessDate;
+            this.reservationsExamined = reservationsExamined;
+            this.noShows = noShows;
+            this.chargesPosted = chargesPosted;
+            this.amountPosted = amountPosted;
+            this.unpaidBalances = unpaidBalances;
+            this.overstays = overstays;
+        }
+
+        public LocalDate getBusinessDate() { return businessDate; }
+        public int getReservationsExamined() { return reservationsExamined; }
+        public long getNoShows() { return noShows; }
+        public long getChargesPosted() { return chargesPosted; }
+        public double getAmountPosted() { return amountPosted; }
+        // Reservations past check-in that are still open and not fully paid
+        public List<Reservation> getUnpaidBalances() { return unpaidBalances; }
+        // Checked-in guests past their check-out date
+        public List<Reservation> getOverstays() { return overstays; }
+
+        @Override
+        public String toString() {
+            return String.format("NightAudit{date=%s, examined=%d, noShows=%d, charges=%d, posted=%.2f, unpaid=%d, overstays=%d}",
+                    businessDate, reservationsExamined, noShows, chargesPosted, amountPosted,
+                    unpaidBalances.size(), overstays.size());
+        }
+    }
+
+    private final BookingService bookingService;
+    // Unresolved reservations by check-in day; finished ones are pruned by the audit that sees them
+    private final TreeMap<Long, List<Reservation>> byCheckIn;
+    private int indexedCount;
+    private final List<Rollover> rollovers;
+
+    public NightAudit(BookingService bookingService) {
+        this.bookingService = bookingService;
+        this.byCheckIn = new TreeMap<>();
+        this.rollovers = new CopyOnWriteArrayList<>();
+        for (Reservation reservation : bookingService.getReservations()) {
+            index(reservation);
+        }
+    }
+
+    // Rolled forward with the room calendars at each audit, e.g. the search index and the pricing engine
+    public void addRollover(Rollover rollover) {
+        rollovers.add(rollover);
+    }
+
+    public void removeRollover(Rollover rollover) {
+        rollovers.remove(rollover);
+    }
+
+    @Override
+    public void onBooked(Reservation reservation, Room room) {
+        add(reservation);
+    }
+
+    @Override
+    public void onCancelled(Reservation reservation, Room room) {
+        // Left in place and pruned at the next audit that reaches its check-in day
+    }
+
+    @Override
+    public void onMoved(Reservation reservation, Room from, Room to) {
+        // Indexed by check-in day, which a move does not change
+    }
+
+    public synchronized void add(Reservation reservation) {
+        index(reservation);
+    }
+
+    private void index(Reservation reservation) {
+        if (!isFinished(reservation)) {
+            byCheckIn.computeIfAbsent(reservation.getCheckInDate().toEpochDay(), day -> new ArrayList<>()).add(reservation);
+            indexedCount++;
+        }
+    }
+
+    public AuditReport run() {
+        return run(LocalDate.now());
+    }
+
+    // Only reservations that have reached check-in by the business date are examined; future arrivals are not
+    public AuditReport run(LocalDate businessDate) {
+        List<Reservation> due = new ArrayList<>();
+        synchronized (this) {
+            for (List<Reservation> arrivals : byCheckIn.headMap(businessDate.toEpochDay(), true).values()) {
+                due.addAll(arrivals);
+            }
+        }
+
+        LongAdder noShows = new LongAdder();
+        LongAdder chargesPosted = new LongAdder();
+        DoubleAdder amountPosted = new DoubleAdder();
+        ConcurrentLinkedQueue<Reservation> unpaid = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Reservation> overstays = new ConcurrentLinkedQueue<>();
+
+        due.parallelStream().forEach(reservation -> {
+            if (bookingService.markNoShow(reservation, businessDate)) {
+                noShows.increment();
+                return;
+            }
+
+            double charge;
+            synchronized (reservation) {
+                charge = reservation.postRoomCharge(businessDate);
+            }
+            if (charge > 0) {
+                chargesPosted.increment();
+                amountPosted.add(charge);
+            }
+
+            if (reservation.getStatus() == Reservation.ReservationStatus.CHECKED_IN
+                    && !businessDate.isBefore(reservation.getCheckOutDate())) {
+                overstays.add(reservation);
+            }
+            if (!isFinished(reservation) && reservation.getRemainingAmount() > 0) {
+                unpaid.add(reservation);
+            }
+        });
+
+        prune(businessDate.toEpochDay());
+        // Nights before the business date can no longer be booked, so the calendars stop tracking them
+        for (Room room : bookingService.getRooms()) {
+            room.getCalendar().advanceTo(businessDate);
+        }
+        for (Rollover rollover : rollovers) {
+            rollover.advanceTo(businessDate);
+        }
+        return new AuditReport(businessDate, due.size(), noShows.sum(), chargesPosted.sum(), amountPosted.sum(),
+                new ArrayList<>(unpaid), new ArrayList<>(overstays));
+    }
+
+    private synchronized void prune(long businessDay) {
+        Iterator<Map.Entry<Long, List<Reservation>>> days = byCheckIn.headMap(businessDay, true).entrySet().iterator();
+        while (days.hasNext()) {
+            List<Reservation> arrivals = days.next().getValue();
+            int before = arrivals.size();
+            arrivals.removeIf(NightAudit::isFinished);
+            indexedCount -= before - arrivals.size();
+            if (arrivals.isEmpty()) {
+                days.remove();
+            }
+        }
+    }
+
+    private static boolean isFinished(Reservation reservation) {
+        Reservation.ReservationStatus status = reservation.getStatus();
+        return status == Reservation.ReservationStatus.CHECKED_OUT
+                || status == Reservation.ReservationStatus.CANCELLED
+                || status == Reservation.ReservationStatus.NO_SHOW;
+    }
+
+    public synchronized int getIndexedCount() { return indexedCount; }
+}
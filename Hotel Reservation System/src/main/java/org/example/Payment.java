@@ -1,6 +1,7 @@
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Payment {
     public enum PaymentMethod {
@@ -11,11 +12,13 @@ public class Payment {
         PENDING, PROCESSING, COMPLETED, FAILED, REFUNDED, CANCELLED
     }
 
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
     private String paymentId;
     private String reservationId;
     private double amount;
     private PaymentMethod method;
-    private PaymentStatus status;
+    private volatile PaymentStatus status;
     private LocalDateTime paymentDateTime;
     private String transactionReference;
     private String cardNumber;
@@ -37,8 +40,24 @@ public class Payment {
         this.cardHolderName = "";
     }
 
+    Payment(String paymentId, String reservationId, double amount, PaymentMethod method, PaymentStatus status,
+            LocalDateTime paymentDateTime, String transactionReference, String cardNumber, String cardHolderName,
+            String description, double processingFee) {
+        this.paymentId = paymentId;
+        this.reservationId = reservationId;
+        this.amount = amount;
+        this.method = method;
+        this.status = status;
+        this.paymentDateTime = paymentDateTime;
+        this.transactionReference = transactionReference;
+        this.cardNumber = cardNumber != null ? cardNumber : "";
+        this.cardHolderName = cardHolderName != null ? cardHolderName : "";
+        this.description = description;
+        this.processingFee = processingFee;
+    }
+
     private String generatePaymentId() {
-        return "PAY" + System.currentTimeMillis() % 1000000;
+        return "PAY" + System.currentTimeMillis() % 1000000 + "-" + SEQUENCE.incrementAndGet();
     }
 
     private String generateTransactionReference() {
@@ -68,8 +87,24 @@ public class Payment {
         status = PaymentStatus.PROCESSING;
 
         boolean paymentSuccessful = simulatePaymentProcessing();
+        return completeProcessing(paymentSuccessful);
+    }
 
-        if (paymentSuccessful) {
+    // Claims a pending payment for an asynchronous gateway call
+    public synchronized boolean markProcessing() {
+        if (status == PaymentStatus.PENDING) {
+            status = PaymentStatus.PROCESSING;
+            return true;
+        }
+        return false;
+    }
+
+    // Ignored if the payment was cancelled while the gateway call was in flight
+    public synchronized boolean completeProcessing(boolean successful) {
+        if (status != PaymentStatus.PROCESSING) {
+            return false;
+        }
+        if (successful) {
             status = PaymentStatus.COMPLETED;
             paymentDateTime = LocalDateTime.now();
             return true;
@@ -91,7 +126,7 @@ public class Payment {
         return random.nextInt(100) < successRate;
     }
 
-    private int getSuccessRateByMethod() {
+    int getSuccessRateByMethod() {
         switch (method) {
             case CASH:
                 return 100;
@@ -108,7 +143,7 @@ public class Payment {
         }
     }
 
-    public boolean refundPayment() {
+    public synchronized boolean refundPayment() {
         if (status == PaymentStatus.COMPLETED) {
             status = PaymentStatus.REFUNDED;
             return true;
@@ -116,7 +151,7 @@ public class Payment {
         return false;
     }
 
-    public void cancelPayment() {
+    public synchronized void cancelPayment() {
         if (status == PaymentStatus.PENDING || status == PaymentStatus.PROCESSING) {
             status = PaymentStatus.CANCELLED;
         }
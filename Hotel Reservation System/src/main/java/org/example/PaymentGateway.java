@@ -0,0 +1,31 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface PaymentGateway {
+    // Completes with true when approved and false when declined; completes exceptionally on a transient error
+    CompletableFuture<Boolean> charge(Payment payment);
+
+    // One approval flag per payment, in order; gateways with a real batch endpoint should override this
+    default CompletableFuture<boolean[]> chargeBatch(List<Payment> payments) {
+        List<CompletableFuture<Boolean>> calls = new ArrayList<>(payments.size());
+        for (Payment payment : payments) {
+            calls.add(charge(payment));
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            boolean[] results = new boolean[calls.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = calls.get(i).join();
+            }
+            return results;
+        });
+    }
+
+    class GatewayException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public GatewayException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PaymentProcessor {
+    private final PaymentGateway gateway;
+    private final long timeoutMillis;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+
+    private final LongAdder inFlight;
+    private final LongAdder approved;
+    private final LongAdder declined;
+    private final LongAdder capturedAfterCancel;
+    private final LongAdder retries;
+    private final LongAdder exhausted;
+
+    public PaymentProcessor(PaymentGateway gateway) {
+        this(gateway, 5_000, 3, 200);
+    }
+
+    public PaymentProcessor(PaymentGateway gateway, long timeoutMillis, int maxAttempts, long retryBackoffMillis) {
+        if (timeoutMillis <= 0 || maxAttempts <= 0 || retryBackoffMillis < 0) {
+            throw new IllegalArgumentException("Invalid processor settings");
+        }
+        this.gateway = gateway;
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.inFlight = new LongAdder();
+        this.approved = new LongAdder();
+        this.declined = new LongAdder();
+        this.capturedAfterCancel = new LongAdder();
+        this.retries = new LongAdder();
+        this.exhausted = new LongAdder();
+    }
+
+    // Completes with the final outcome; a payment that is not pending completes false straight away
+    public CompletableFuture<Boolean> process(Payment payment) {
+        if (!payment.markProcessing()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        inFlight.increment();
+        return attempt(payment, 1).handle((successful, error) -> {
+            inFlight.decrement();
+            if (error != null) {
+                exhausted.increment();
+                payment.completeProcessing(false);
+                return false;
+            }
+            boolean completed = payment.completeProcessing(successful);
+            if (completed) {
+                approved.increment();
+            } else if (successful) {
+                // Cancelled locally while the gateway approved it: the money was taken and has to be refunded
+                capturedAfterCancel.increment();
+            } else {
+                declined.increment();
+            }
+            return completed;
+        });
+    }
+
+    private CompletableFuture<Boolean> attempt(Payment payment, int attempt) {
+        CompletableFuture<Boolean> call;
+        try {
+            call = gateway.charge(payment).orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+
+        return call.handle((successful, error) -> {
+            if (error == null) {
+                return CompletableFuture.completedFuture(successful);
+            }
+            // Stop if the payment was cancelled meanwhile; a declined card is an answer, not a failure
+            if (attempt >= maxAttempts || payment.getStatus() != Payment.PaymentStatus.PROCESSING) {
+                return CompletableFuture.<Boolean>failedFuture(unwrap(error));
+            }
+            retries.increment();
+            long delay = retryBackoffMillis << (attempt - 1);
+            return CompletableFuture.supplyAsync(() -> payment,
+                            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                    .thenCompose(p -> attempt(p, attempt + 1));
+        }).thenCompose(result -> result);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    public PaymentGateway getGateway() { return gateway; }
+    public long getInFlightCount() { return inFlight.sum(); }
+    public long getApprovedCount() { return approved.sum(); }
+    public long getDeclinedCount() { return declined.sum(); }
+    // Approved by the gateway after the payment was cancelled here; captured but never completed
+    public long getCapturedAfterCancelCount() { return capturedAfterCancel.sum(); }
+    public long getRetryCount() { return retries.sum(); }
+    public long getExhaustedCount() { return exhausted.sum(); }
+}
@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+// Nightly check that what reservations say was paid agrees with the payments behind them. Both sides are split
+// into partitions by reservation id and each partition is hash-joined on its own, in parallel.
+public class PaymentReconciler {
+    public enum Discrepancy {
+        // Completed payments not credited to the reservation
+        UNDER_RECORDED,
+        // Credited amounts with no completed payment behind them
+        OVER_RECORDED,
+        // A refunded payment that is still counted as paid
+        REFUND_NOT_REVERSED,
+        // Completed payments exceed the reservation total
+        OVERPAID,
+        // Amounts agree but the paid flag does not
+        PAID_FLAG_MISMATCH,
+        // Payments for a reservation that does not exist
+        ORPHAN_PAYMENT
+    }
+
+    public static class Finding {
+        private final String reservationId;
+        private final Reservation reservation;
+        private final Discrepancy discrepancy;
+        private final double recordedPaid;
+        private final double captured;
+        private final double refunded;
+        private final double pending;
+
+        private Finding(String reservationId, Reservation reservation, Discrepancy discrepancy, long recordedCents,
+                        Totals totals) {
+            this.reservationId = reservationId;
+            this.reservation = reservation;
+            this.discrepancy = discrepancy;
+            this.recordedPaid = recordedCents / 100.0;
+            this.captured = totals.completedCents / 100.0;
+            this.refunded = totals.refundedCents / 100.0;
+            this.pending = totals.pendingCents / 100.0;
+        }
+
+        public String getReservationId() { return reservationId; }
+        // Null for orphan payments
+        public Reservation getReservation() { return reservation; }
+        public Discrepancy getDiscrepancy() { return discrepancy; }
+        public double getRecordedPaid() { return recordedPaid; }
+        public double getCaptured() { return captured; }
+        public double getRefunded() { return refunded; }
+        public double getPending() { return pending; }
+        public double getDifference() { return captured - recordedPaid; }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: recorded=%.2f captured=%.2f refunded=%.2f pending=%.2f",
+                    discrepancy, reservationId, recordedPaid, captured, refunded, pending);
+        }
+    }
+
+    public static class ReconciliationReport {
+        private final int reservations;
+        private final int payments;
+        private final int matched;
+        private final List<Finding> findings;
+        private final List<Reservation> partiallyPaid;
+        private final Map<Discrepancy, Integer> counts;
+        private final double totalCaptured;
+        private final double totalRecorded;
+
+        private ReconciliationReport(int reservations, int payments, int matched, List<Finding> findings,
+                                     List<Reservation> partiallyPaid, double totalCaptured, double totalRecorded) {
+            this.reservations = reservations;
+            this.payments = payments;
+            this.matched = matched;
+            this.findings = findings;
+            this.partiallyPaid = partiallyPaid;
+            this.counts = new EnumMap<>(Discrepancy.class);
+            for (Finding finding : findings) {
+                counts.merge(finding.discrepancy, 1, Integer::sum);
+            }
+            this.totalCaptured = totalCaptured;
+            this.totalRecorded = totalRecorded;
+        }
+
+        public int getReservationCount() { return reservations; }
+        public int getPaymentCount() { return payments; }
+        public int getMatchedCount() { return matched; }
+        public List<Finding> getFindings() { return findings; }
+        // Reservations that agree with their payments but still owe part of the total
+        public List<Reservation> getPartiallyPaid() { return partiallyPaid; }
+        public int getCount(Discrepancy discrepancy) { return counts.getOrDefault(discrepancy, 0); }
+        public double getTotalCaptured() { return totalCaptured; }
+        public double getTotalRecorded() { return totalRecorded; }
+
+        @Override
+        public String toString() {
+            return String.format("Reconciliation{reservations=%d, payments=%d, matched=%d, partial=%d, findings=%s, captured=%.2f, recorded=%.2f}",
+                    reservations, payments, matched, partiallyPaid.size(), counts, totalCaptured, totalRecorded);
+        }
+    }
+
+    // Per reservation id, in cents so sums are exact
+    private static class Totals {
+        private long completedCents;
+        private long refundedCents;
+        private long pendingCents;
+        private boolean joined;
+    }
+
+    private static class PartitionResult {
+        private final List<Finding> findings = new ArrayList<>();
+        private final List<Reservation> partiallyPaid = new ArrayList<>();
+        private int matched;
+        private long capturedCents;
+        private long recordedCents;
+    }
+
+    private final int partitionBits;
+
+    public PaymentReconciler() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public PaymentReconciler(int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Partition count must be positive");
+        }
+        this.partitionBits = 32 - Integer.numberOfLeadingZeros(partitions - 1);
+    }
+
+    public ReconciliationReport reconcile(Collection<Reservation> reservations, Collection<Payment> payments) {
+        int partitionCount = 1 << partitionBits;
+        int[] reservationBounds = new int[partitionCount + 1];
+        int[] paymentBounds = new int[partitionCount + 1];
+        Reservation[] reservationsByPartition = scatter(reservations.toArray(new Reservation[0]),
+                reservation -> partitionOf(reservation.getReservationId()), reservationBounds);
+        Payment[] paymentsByPartition = scatter(payments.toArray(new Payment[0]),
+                payment -> partitionOf(payment.getReservationId()), paymentBounds);
+
+        PartitionResult[] results = new PartitionResult[partitionCount];
+        IntStream.range(0, partitionCount).parallel().forEach(p -> results[p] = join(reservationsByPartition,
+                reservationBounds[p], reservationBounds[p + 1], paymentsByPartition, paymentBounds[p], paymentBounds[p + 1]));
+
+        List<Finding> findings = new ArrayList<>();
+        List<Reservation> partiallyPaid = new ArrayList<>();
+        int matched = 0;
+        long captured = 0;
+        long recorded = 0;
+        for (PartitionResult result : results) {
+            findings.addAll(result.findings);
+            partiallyPaid.addAll(result.partiallyPaid);
+            matched += result.matched;
+            captured += result.capturedCents;
+            recorded += result.recordedCents;
+        }
+        return new ReconciliationReport(reservationsByPartition.length, paymentsByPartition.length, matched,
+                Collections.unmodifiableList(findings), Collections.unmodifiableList(partiallyPaid),
+                captured / 100.0, recorded / 100.0);
+    }
+
+    // Build on the payments of one partition, probe with its reservations, then whatever was never probed is orphaned
+    private PartitionResult join(Reservation[] reservations, int reservationFrom, int reservationTo,
+                                 Payment[] payments, int paymentFrom, int paymentTo) {
+        PartitionResult result = new PartitionResult();
+        Map<String, Totals> byReservation = new HashMap<>(Math.max(16, (int) ((paymentTo - paymentFrom) / 0.75f) + 1));
+        for (int i = paymentFrom; i < paymentTo; i++) {
+            Payment payment = payments[i];
+            Totals totals = byReservation.computeIfAbsent(payment.getReservationId(), id -> new Totals());
+            long cents = Math.round(payment.getAmount() * 100);
+            switch (payment.getStatus()) {
+                case COMPLETED:
+                    totals.completedCents += cents;
+                    break;
+                case REFUNDED:
+                    totals.refundedCents += cents;
+                    break;
+                case PENDING:
+                case PROCESSING:
+                    totals.pendingCents += cents;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Totals none = new Totals();
+        for (int i = reservationFrom; i < reservationTo; i++) {
+            Reservation reservation = reservations[i];
+            Totals totals = byReservation.get(reservation.getReservationId());
+            if (totals == null) {
+                totals = none;
+            } else {
+                totals.joined = true;
+            }
+
+            long recorded;
+            long total;
+            boolean paid;
+            // One consistent view of the reservation, since payments may still be applied while this runs
+            synchronized (reservation) {
+                recorded = Math.round(reservation.getAmountPaid() * 100);
+                total = Math.round(reservation.getTotalAmount() * 100);
+                paid = reservation.isPaid();
+            }
+            result.capturedCents += totals.completedCents;
+            result.recordedCents += recorded;
+
+            Discrepancy discrepancy = null;
+            if (recorded < totals.completedCents) {
+                discrepancy = Discrepancy.UNDER_RECORDED;
+            } else if (recorded > totals.completedCents) {
+                discrepancy = totals.refundedCents > 0 && recorded <= totals.completedCents + totals.refundedCents
+                        ? Discrepancy.REFUND_NOT_REVERSED : Discrepancy.OVER_RECORDED;
+            } else if (recorded > total) {
+                discrepancy = Discrepancy.OVERPAID;
+            } else if (paid != (total > 0 && recorded >= total)) {
+                discrepancy = Discrepancy.PAID_FLAG_MISMATCH;
+            }
+
+            if (discrepancy != null) {
+                result.findings.add(new Finding(reservation.getReservationId(), reservation, discrepancy, recorded, totals));
+            } else {
+                result.matched++;
+                if (recorded > 0 && recorded < total) {
+                    result.partiallyPaid.add(reservation);
+                }
+            }
+        }
+
+        for (Map.Entry<String, Totals> entry : byReservation.entrySet()) {
+            if (!entry.getValue().joined) {
+                result.findings.add(new Finding(entry.getKey(), null, Discrepancy.ORPHAN_PAYMENT, 0, entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    // Uses the high bits of the hash; HashMap buckets by the low bits, so keys within a partition still spread out
+    private int partitionOf(String reservationId) {
+        return partitionBits == 0 ? 0 : (Objects.hashCode(reservationId) * 0x9E3779B9) >>> (32 - partitionBits);
+    }
+
+    // Reorders items so each partition is contiguous; bounds[p]..bounds[p + 1] is partition p
+    private <T> T[] scatter(T[] items, ToIntFunction<T> partitionOf, int[] bounds) {
+        int partitionCount = bounds.length - 1;
+        int chunkCount = Math.max(1, Math.min(partitionCount, items.length / 4096));
+        int[] partitionIds = new int[items.length];
+        int[][] counts = new int[chunkCount][partitionCount];
+
+        IntStream.range(0, chunkCount).parallel().forEach(c -> {
+            int[] chunkCounts = counts[c];
+            for (int i = chunkStart(items.length, chunkCount, c), end = chunkStart(items.length, chunkCount, c + 1); i < end; i++) {
+                int p = partitionOf.applyAsInt(items[i]);
+                partitionIds[i] = p;
+                chunkCounts[p]++;
+            }
+        });
+
+        // Each chunk writes its share of a partition after the chunks before it, so the scatter needs no locking
+        int offset = 0;
+        for (int p = 0; p < partitionCount; p++) {
+            bounds[p] = offset;
+            for (int c = 0; c < chunkCount; c++) {
+                int count = counts[c][p];
+                counts[c][p] = offset;
+                offset += count;
+            }
+        }
+        bounds[partitionCount] = offset;
+
+        T[] scattered = Arrays.copyOf(items, items.length);
+        IntStream.range(0, chunkCount).parallel().forEach(c -> {
+            int[] next = counts[c];
+            for (int i = chunkStart(items.length, chunkCount, c), end = chunkStart(items.length, chunkCount, c + 1); i < end; i++) {
+                scattered[next[partitionIds[i]]++] = items[i];
+            }
+        });
+        return scattered;
+    }
+
+    private static int chunkStart(int size, int chunkCount, int chunk) {
+        return (int) ((long) size * chunk / chunkCount);
+    }
+
+    public int getPartitionCount() { return 1 << partitionBits; }
+}
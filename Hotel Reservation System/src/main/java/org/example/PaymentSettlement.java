@@ -0,0 +1,212 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class PaymentSettlement {
+    public static class SettlementReport {
+        private final Map<Payment.PaymentMethod, int[]> countsByMethod;
+        private final List<Payment> skipped;
+        private final List<Payment> unapplied;
+        private int batches;
+        private int failedBatches;
+        private double capturedAmount;
+        private int reservationsUpdated;
+
+        private SettlementReport() {
+            this.countsByMethod = new EnumMap<>(Payment.PaymentMethod.class);
+            this.skipped = new ArrayList<>();
+            this.unapplied = new ArrayList<>();
+        }
+
+        // counts[0] approved, counts[1] declined, counts[2] failed after retries
+        private int[] counts(Payment.PaymentMethod method) {
+            return countsByMethod.computeIfAbsent(method, m -> new int[3]);
+        }
+
+        public int getApprovedCount(Payment.PaymentMethod method) { return countsByMethod.containsKey(method) ? countsByMethod.get(method)[0] : 0; }
+        public int getDeclinedCount(Payment.PaymentMethod method) { return countsByMethod.containsKey(method) ? countsByMethod.get(method)[1] : 0; }
+        public int getFailedCount(Payment.PaymentMethod method) { return countsByMethod.containsKey(method) ? countsByMethod.get(method)[2] : 0; }
+
+        public int getApprovedCount() { return total(0); }
+        public int getDeclinedCount() { return total(1); }
+        public int getFailedCount() { return total(2); }
+
+        private int total(int column) {
+            int sum = 0;
+            for (int[] counts : countsByMethod.values()) {
+                sum += counts[column];
+            }
+            return sum;
+        }
+
+        public int getBatches() { return batches; }
+        public int getFailedBatches() { return failedBatches; }
+        public double getCapturedAmount() { return capturedAmount; }
+        public int getReservationsUpdated() { return reservationsUpdated; }
+        // Left pending and never sent to the gateway: the reservation is unknown or the payment would overpay it
+        public List<Payment> getSkipped() { return skipped; }
+        // Captured but not credited because the balance was paid by other means during settlement or the payment was
+        // cancelled while its batch was out; need a refund
+        public List<Payment> getUnapplied() { return unapplied; }
+
+        @Override
+        public String toString() {
+            return String.format("Settlement{batches=%d, failedBatches=%d, approved=%d, declined=%d, failed=%d, captured=%.2f, skipped=%d, unapplied=%d}",
+                    batches, failedBatches, getApprovedCount(), getDeclinedCount(), getFailedCount(), capturedAmount,
+                    skipped.size(), unapplied.size());
+        }
+    }
+
+    private final PaymentGateway gateway;
+    private final BookingService bookingService;
+    private final int batchSize;
+    private final long timeoutMillis;
+    private final int maxAttempts;
+    private volatile HotelStore store;
+
+    public PaymentSettlement(PaymentGateway gateway, BookingService bookingService, int batchSize) {
+        this(gateway, bookingService, batchSize, 30_000, 3);
+    }
+
+    public PaymentSettlement(PaymentGateway gateway, BookingService bookingService, int batchSize, long timeoutMillis,
+                             int maxAttempts) {
+        if (batchSize <= 0 || timeoutMillis <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Invalid settlement settings");
+        }
+        this.gateway = gateway;
+        this.bookingService = bookingService;
+        this.batchSize = batchSize;
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    // Captures pending payments and credits approved amounts to their reservations. Only payments that fit in the
+    // reservation's outstanding balance are sent to the gateway, so nothing is captured that cannot be credited.
+    public CompletableFuture<SettlementReport> settle(Collection<Payment> payments) {
+        SettlementReport report = new SettlementReport();
+        Map<Payment.PaymentMethod, List<Payment>> byMethod = new EnumMap<>(Payment.PaymentMethod.class);
+        // Per reservation, {total, paid so far including payments admitted above}; mirrors Reservation.makePayment
+        Map<String, double[]> balances = new HashMap<>();
+        for (Payment payment : payments) {
+            if (payment.getStatus() != Payment.PaymentStatus.PENDING) {
+                continue;
+            }
+            double[] balance = balances.computeIfAbsent(payment.getReservationId(), this::balanceOf);
+            double amount = payment.getAmount();
+            if (balance == null || amount <= 0 || amount > Math.max(0, balance[0] - balance[1])) {
+                report.skipped.add(payment);
+                continue;
+            }
+            if (payment.markProcessing()) {
+                balance[1] += amount;
+                byMethod.computeIfAbsent(payment.getMethod(), m -> new ArrayList<>()).add(payment);
+            }
+        }
+
+        List<List<Payment>> batches = new ArrayList<>();
+        List<CompletableFuture<boolean[]>> results = new ArrayList<>();
+        for (List<Payment> group : byMethod.values()) {
+            for (int from = 0; from < group.size(); from += batchSize) {
+                List<Payment> batch = group.subList(from, Math.min(group.size(), from + batchSize));
+                batches.add(batch);
+                results.add(submit(batch, 1));
+            }
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .handle((done, error) -> apply(report, batches, results));
+    }
+
+    private double[] balanceOf(String reservationId) {
+        Reservation reservation = bookingService.getReservation(reservationId);
+        if (reservation == null) {
+            return null;
+        }
+        synchronized (reservation) {
+            return new double[] {reservation.getTotalAmount(), reservation.getAmountPaid()};
+        }
+    }
+
+    // Logs the outcome of every payment sent to the gateway; credits are logged by the store as a booking listener
+    public void setStore(HotelStore store) { this.store = store; }
+
+    private CompletableFuture<boolean[]> submit(List<Payment> batch, int attempt) {
+        CompletableFuture<boolean[]> call;
+        try {
+            call = gateway.chargeBatch(batch).orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        if (attempt >= maxAttempts) {
+            return call;
+        }
+        return call.handle((approved, error) -> error == null
+                        ? CompletableFuture.completedFuture(approved)
+                        : submit(batch, attempt + 1))
+                .thenCompose(result -> result);
+    }
+
+    private SettlementReport apply(SettlementReport report, List<List<Payment>> batches,
+                                   List<CompletableFuture<boolean[]>> results) {
+        Map<String, List<Payment>> approvedByReservation = new HashMap<>();
+        HotelStore log = store;
+
+        for (int b = 0; b < batches.size(); b++) {
+            List<Payment> batch = batches.get(b);
+            CompletableFuture<boolean[]> result = results.get(b);
+            boolean[] approved = result.isCompletedExceptionally() ? null : result.join();
+            report.batches++;
+            if (approved == null) {
+                report.failedBatches++;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                Payment payment = batch.get(i);
+                int[] counts = report.counts(payment.getMethod());
+                if (approved == null) {
+                    payment.completeProcessing(false);
+                    counts[2]++;
+                } else if (payment.completeProcessing(approved[i])) {
+                    counts[0]++;
+                    report.capturedAmount += payment.getAmount();
+                    approvedByReservation.computeIfAbsent(payment.getReservationId(), id -> new ArrayList<>()).add(payment);
+                } else if (approved[i]) {
+                    // Cancelled here while the batch was out, yet the gateway took the money
+                    counts[0]++;
+                    report.capturedAmount += payment.getAmount();
+                    report.unapplied.add(payment);
+                } else {
+                    counts[1]++;
+                }
+                // Before the credit, so a crash in between shows up as under-recorded rather than a second capture
+                if (log != null) {
+                    log.savePayment(payment);
+                }
+            }
+        }
+
+        // Credited one payment at a time, in the order they were admitted, so the checks match the cap applied above
+        for (Map.Entry<String, List<Payment>> entry : approvedByReservation.entrySet()) {
+            Reservation reservation = bookingService.getReservation(entry.getKey());
+            boolean updated = false;
+            for (Payment payment : entry.getValue()) {
+                if (bookingService.applyPayment(reservation, payment.getAmount(), payment.getMethod().name())) {
+                    updated = true;
+                } else {
+                    report.unapplied.add(payment);
+                }
+            }
+            if (updated) {
+                report.reservationsUpdated++;
+            }
+        }
+        return report;
+    }
+
+    public int getBatchSize() { return batchSize; }
+}
@@ -0,0 +1,373 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class PricingEngine implements BookingService.BookingListener, NightAudit.Rollover {
+    // Occupancy bands as upper bounds (exclusive) and the multiplier applied inside each band
+    private static final double[] OCCUPANCY_BANDS = {0.40, 0.70, 0.85, 0.95, Double.MAX_VALUE};
+    private static final double[] OCCUPANCY_MULTIPLIERS = {0.90, 1.00, 1.15, 1.30, 1.50};
+    private static final int NEUTRAL_BAND = 1;
+    private static final double WEEKEND_MULTIPLIER = 1.20;
+    private static final int LAST_MINUTE_DAYS = 2;
+    private static final double LAST_MINUTE_MULTIPLIER = 1.10;
+    private static final int EARLY_BIRD_DAYS = 60;
+    private static final double EARLY_BIRD_MULTIPLIER = 0.95;
+
+    public static class Quote {
+        private final Room.RoomType type;
+        private final LocalDate checkIn;
+        private final LocalDate checkOut;
+        private final double[] nightlyRates;
+        private final double multiplierSum;
+        private final double discountRate;
+        private final double subtotal;
+
+        private Quote(Room.RoomType type, LocalDate checkIn, LocalDate checkOut, double referencePrice,
+                      double[] multipliers, double discountRate) {
+            this.type = type;
+            this.checkIn = checkIn;
+            this.checkOut = checkOut;
+            this.discountRate = discountRate;
+            this.nightlyRates = new double[multipliers.length];
+            double sum = 0;
+            for (int i = 0; i < multipliers.length; i++) {
+                nightlyRates[i] = referencePrice * multipliers[i];
+                sum += multipliers[i];
+            }
+            this.multiplierSum = sum;
+            this.subtotal = referencePrice * sum;
+        }
+
+        // Same nightly adjustments applied to a specific room's list price
+        public double getRoomSubtotal(Room room) {
+            return room.getPricePerNight() * multiplierSum;
+        }
+
+        public double getNightlyRate(int night) { return nightlyRates[night]; }
+        public int getNights() { return nightlyRates.length; }
+        public double getSubtotal() { return subtotal; }
+        public double getDiscountRate() { return discountRate; }
+        public double getDiscountAmount() { return subtotal * discountRate; }
+        public double getTotal() { return subtotal - getDiscountAmount(); }
+        public Room.RoomType getType() { return type; }
+        public LocalDate getCheckIn() { return checkIn; }
+        public LocalDate getCheckOut() { return checkOut; }
+
+        @Override
+        public String toString() {
+            return String.format("Quote{%s %s to %s, nights=%d, total=%.2f}", type, checkIn, checkOut, getNights(), getTotal());
+        }
+    }
+
+    private static final class QuoteKey {
+        private final int type;
+        private final long checkInDay;
+        private final long checkOutDay;
+        private final long quoteDay;
+        private final int discountBasisPoints;
+        private final int generation;
+
+        private QuoteKey(int type, long checkInDay, long checkOutDay, long quoteDay, int discountBasisPoints, int generation) {
+            this.type = type;
+            this.checkInDay = checkInDay;
+            this.checkOutDay = checkOutDay;
+            this.quoteDay = quoteDay;
+            this.discountBasisPoints = discountBasisPoints;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof QuoteKey)) return false;
+            QuoteKey key = (QuoteKey) obj;
+            return type == key.type && checkInDay == key.checkInDay && checkOutDay == key.checkOutDay
+                    && quoteDay == key.quoteDay && discountBasisPoints == key.discountBasisPoints
+                    && generation == key.generation;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, checkInDay, checkOutDay, quoteDay, discountBasisPoints, generation);
+        }
+    }
+
+    private static final int MAX_CACHE_SEGMENTS = 16;
+
+    private final Room[] rooms;
+    private final int[] roomsByType;
+    private final double[] referencePrice;
+    // A ring of nights per type: the night baseDay + d is counted in slot (baseDay + d) mod horizon
+    private final AtomicIntegerArray[] soldByTypeAndDay;
+    // Bumped whenever a night of that type moves to another occupancy band, orphaning its cached quotes
+    private final AtomicIntegerArray generation;
+    // LRU segments, each its own lock; keys are spread over them so quotes do not queue on one monitor
+    private final List<Map<QuoteKey, Quote>> cache;
+    // Quotes and occupancy changes share the read lock, the counts being atomic; advanceTo takes the write lock
+    // so no booking lands on a slot while it is reloaded
+    private final ReentrantReadWriteLock lock;
+    // The business date: the first night that can be quoted and the day lead times are measured from
+    private volatile long baseDay;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    public PricingEngine(Collection<Room> inventory, int horizonDays, int cacheSize) {
+        this(inventory, LocalDate.now(), horizonDays, cacheSize);
+    }
+
+    public PricingEngine(Collection<Room> inventory, LocalDate baseDate, int horizonDays, int cacheSize) {
+        if (horizonDays <= 0 || cacheSize <= 0) {
+            throw new IllegalArgumentException("Horizon and cache size must be positive");
+        }
+
+        int types = Room.RoomType.values().length;
+        this.rooms = inventory.toArray(new Room[0]);
+        this.baseDay = baseDate.toEpochDay();
+        this.roomsByType = new int[types];
+        this.referencePrice = new double[types];
+        this.soldByTypeAndDay = new AtomicIntegerArray[types];
+        for (int t = 0; t < types; t++) {
+            soldByTypeAndDay[t] = new AtomicIntegerArray(horizonDays);
+        }
+        this.generation = new AtomicIntegerArray(types);
+        int segments = Integer.highestOneBit(Math.min(MAX_CACHE_SEGMENTS, cacheSize));
+        int segmentSize = cacheSize / segments;
+        this.cache = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            cache.add(new LinkedHashMap<QuoteKey, Quote>(segmentSize * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<QuoteKey, Quote> eldest) {
+                    return size() > segmentSize;
+                }
+            });
+        }
+        this.lock = new ReentrantReadWriteLock();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+
+        for (Room room : rooms) {
+            int type = room.getType().ordinal();
+            roomsByType[type]++;
+            referencePrice[type] += room.getPricePerNight();
+        }
+        for (Room.RoomType type : Room.RoomType.values()) {
+            int t = type.ordinal();
+            referencePrice[t] = roomsByType[t] == 0 ? type.getBasePrice() : referencePrice[t] / roomsByType[t];
+        }
+        for (int d = 0; d < horizonDays; d++) {
+            loadDay(baseDay + d);
+        }
+    }
+
+    private void loadDay(long day) {
+        LocalDate night = LocalDate.ofEpochDay(day);
+        int slot = slot(day);
+        for (AtomicIntegerArray sold : soldByTypeAndDay) {
+            sold.set(slot, 0);
+        }
+        for (Room room : rooms) {
+            if (room.getCalendar().isBooked(night)) {
+                soldByTypeAndDay[room.getType().ordinal()].incrementAndGet(slot);
+            }
+        }
+    }
+
+    // Moves the business date forward, reloading only the nights that enter the window; NightAudit calls this
+    // with the calendars. Returns the new business date
+    @Override
+    public LocalDate advanceTo(LocalDate businessDate) {
+        lock.writeLock().lock();
+        try {
+            long from = baseDay;
+            long to = businessDate.toEpochDay();
+            if (to <= from) {
+                return LocalDate.ofEpochDay(from);
+            }
+
+            int horizon = soldByTypeAndDay[0].length();
+            baseDay = to;
+            for (long day = Math.max(from + horizon, to); day < to + horizon; day++) {
+                loadDay(day);
+            }
+            // Nights entering the window move off the neutral band
+            for (int t = 0; t < generation.length(); t++) {
+                generation.incrementAndGet(t);
+            }
+            return businessDate;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Quote quote(Room.RoomType type, LocalDate checkIn, LocalDate checkOut, Guest guest) {
+        return quote(type, checkIn, checkOut, guest == null ? 0.0 : guest.getVipDiscount());
+    }
+
+    // Quoted as of the engine's business date
+    public Quote quote(Room.RoomType type, LocalDate checkIn, LocalDate checkOut, double discountRate) {
+        return quote(type, checkIn, checkOut, discountRate, getBaseDate());
+    }
+
+    public Quote quote(Room.RoomType type, LocalDate checkIn, LocalDate checkOut, double discountRate,
+                       LocalDate businessDate) {
+        long today = businessDate.toEpochDay();
+        long from = checkIn.toEpochDay();
+        long to = checkOut.toEpochDay();
+        if (to <= from) {
+            throw new IllegalArgumentException("Check-out date must be after check-in date");
+        }
+        if (from < today) {
+            throw new IllegalArgumentException("Cannot quote past date " + checkIn);
+        }
+
+        int t = type.ordinal();
+        lock.readLock().lock();
+        try {
+            // Read before the counts, so a band change made while pricing leaves this quote under a stale generation
+            QuoteKey key = new QuoteKey(t, from, to, today, (int) Math.round(discountRate * 10_000), generation.get(t));
+            Map<QuoteKey, Quote> segment = cache.get((key.hashCode() ^ (key.hashCode() >>> 16)) & (cache.size() - 1));
+            Quote quote;
+            synchronized (segment) {
+                quote = segment.get(key);
+            }
+            if (quote != null) {
+                hits.increment();
+                return quote;
+            }
+
+            misses.increment();
+            double[] multipliers = new double[(int) (to - from)];
+            for (int i = 0; i < multipliers.length; i++) {
+                multipliers[i] = nightMultiplier(t, from + i, today);
+            }
+            quote = new Quote(type, checkIn, checkOut, referencePrice[t], multipliers, discountRate);
+            synchronized (segment) {
+                segment.put(key, quote);
+            }
+            return quote;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private double nightMultiplier(int type, long day, long today) {
+        double multiplier = OCCUPANCY_MULTIPLIERS[band(type, day)];
+
+        DayOfWeek dayOfWeek = LocalDate.ofEpochDay(day).getDayOfWeek();
+        if (dayOfWeek == DayOfWeek.FRIDAY || dayOfWeek == DayOfWeek.SATURDAY) {
+            multiplier *= WEEKEND_MULTIPLIER;
+        }
+
+        long leadDays = day - today;
+        if (leadDays <= LAST_MINUTE_DAYS) {
+            multiplier *= LAST_MINUTE_MULTIPLIER;
+        } else if (leadDays >= EARLY_BIRD_DAYS) {
+            multiplier *= EARLY_BIRD_MULTIPLIER;
+        }
+        return multiplier;
+    }
+
+    private int band(int type, long day) {
+        long offset = day - baseDay;
+        AtomicIntegerArray sold = soldByTypeAndDay[type];
+        if (offset < 0 || offset >= sold.length() || roomsByType[type] == 0) {
+            return NEUTRAL_BAND;
+        }
+        return bandFor(sold.get(slot(day)), roomsByType[type]);
+    }
+
+    private static int bandFor(int sold, int rooms) {
+        double occupancy = (double) sold / rooms;
+        int band = 0;
+        while (occupancy >= OCCUPANCY_BANDS[band]) {
+            band++;
+        }
+        return band;
+    }
+
+    @Override
+    public void onBooked(Reservation reservation, Room room) {
+        adjustOccupancy(room.getType(), reservation.getCheckInDate(), reservation.getCheckOutDate(), 1);
+    }
+
+    @Override
+    public void onCancelled(Reservation reservation, Room room) {
+        adjustOccupancy(room.getType(), reservation.getCheckInDate(), reservation.getCheckOutDate(), -1);
+    }
+
+    @Override
+    public void onCheckedOutEarly(Reservation reservation, Room room, LocalDate bookedCheckOut) {
+        adjustOccupancy(room.getType(), reservation.getCheckOutDate(), bookedCheckOut, -1);
+    }
+
+    private void adjustOccupancy(Room.RoomType type, LocalDate checkIn, LocalDate checkOut, int delta) {
+        int t = type.ordinal();
+        AtomicIntegerArray sold = soldByTypeAndDay[t];
+        lock.readLock().lock();
+        try {
+            long from = Math.max(baseDay, checkIn.toEpochDay());
+            long to = Math.min(baseDay + sold.length(), checkOut.toEpochDay());
+
+            boolean bandChanged = false;
+            for (long d = from; d < to; d++) {
+                int before = sold.getAndUpdate(slot(d), n -> Math.max(0, n + delta));
+                bandChanged |= bandFor(before, roomsByType[t]) != bandFor(Math.max(0, before + delta), roomsByType[t]);
+            }
+            if (bandChanged) {
+                generation.incrementAndGet(t);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public double getOccupancy(Room.RoomType type, LocalDate night) {
+        int t = type.ordinal();
+        AtomicIntegerArray sold = soldByTypeAndDay[t];
+        lock.readLock().lock();
+        try {
+            long offset = night.toEpochDay() - baseDay;
+            if (roomsByType[t] == 0 || offset < 0 || offset >= sold.length()) {
+                return 0.0;
+            }
+            return (double) sold.get(slot(night.toEpochDay())) / roomsByType[t];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int slot(long day) {
+        return (int) Math.floorMod(day, (long) soldByTypeAndDay[0].length());
+    }
+
+    public void clearCache() {
+        for (Map<QuoteKey, Quote> segment : cache) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int getCacheSize() {
+        int size = 0;
+        for (Map<QuoteKey, Quote> segment : cache) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public LocalDate getBaseDate() { return LocalDate.ofEpochDay(baseDay); }
+    public double getReferencePrice(Room.RoomType type) { return referencePrice[type.ordinal()]; }
+    public long getCacheHits() { return hits.sum(); }
+    public long getCacheMisses() { return misses.sum(); }
+}
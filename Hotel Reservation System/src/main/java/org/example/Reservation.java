@@ -2,15 +2,20 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Reservation {
     public enum ReservationStatus {
         PENDING, CONFIRMED, CHECKED_IN, CHECKED_OUT, CANCELLED, NO_SHOW
     }
 
+    private static final DateTimeFormatter ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
     private String reservationId;
     private String guestId;
-    private String roomNumber;
+    // Changes only when BookingService moves the stay to another room
+    private volatile String roomNumber;
     private LocalDate checkInDate;
     private LocalDate checkOutDate;
     private int numberOfGuests;
@@ -23,6 +28,9 @@ public class Reservation {
     private String paymentMethod;
     private double discountAmount;
     private String discountReason;
+    private double postedCharges;
+    private LocalDate lastPostedDate;
+    private boolean loyaltyCredited;
 
     public Reservation(String guestId, String roomNumber, LocalDate checkInDate, 
                       LocalDate checkOutDate, int numberOfGuests, double totalAmount) {
@@ -43,8 +51,33 @@ public class Reservation {
         this.discountReason = "";
     }
 
+    Reservation(String reservationId, String guestId, String roomNumber, LocalDate checkInDate,
+                LocalDate checkOutDate, int numberOfGuests, ReservationStatus status, double totalAmount,
+                double amountPaid, LocalDateTime bookingDateTime, String specialRequests, boolean isPaid,
+                String paymentMethod, double discountAmount, String discountReason, double postedCharges,
+                LocalDate lastPostedDate) {
+        this.reservationId = reservationId;
+        this.guestId = guestId;
+        this.roomNumber = roomNumber;
+        this.checkInDate = checkInDate;
+        this.checkOutDate = checkOutDate;
+        this.numberOfGuests = numberOfGuests;
+        this.status = status;
+        this.totalAmount = totalAmount;
+        this.amountPaid = amountPaid;
+        this.bookingDateTime = bookingDateTime;
+        this.specialRequests = specialRequests != null ? specialRequests : "";
+        this.isPaid = isPaid;
+        this.paymentMethod = paymentMethod != null ? paymentMethod : "";
+        this.discountAmount = discountAmount;
+        this.discountReason = discountReason != null ? discountReason : "";
+        this.postedCharges = postedCharges;
+        this.lastPostedDate = lastPostedDate;
+    }
+
     private String generateReservationId() {
-        return "RES" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+        // The timestamp alone repeats within a second, the sequence keeps ids unique
+        return "RES" + LocalDateTime.now().format(ID_FORMAT) + "-" + SEQUENCE.incrementAndGet();
     }
 
     public int getNumberOfNights() {
@@ -75,11 +108,46 @@ public class Reservation {
         }
     }
 
+    // Leaving before the booked check-out date ends the stay on that date and charges only the nights stayed,
+    // at the same nightly share postRoomCharge uses; the first night is always kept
+    public void checkOut(LocalDate departureDate) {
+        if (status != ReservationStatus.CHECKED_IN) {
+            return;
+        }
+        status = ReservationStatus.CHECKED_OUT;
+        LocalDate end = departureDate.isAfter(checkInDate) ? departureDate : checkInDate.plusDays(1);
+        if (end.isBefore(checkOutDate)) {
+            int booked = getNumberOfNights();
+            checkOutDate = end;
+            totalAmount = totalAmount * getNumberOfNights() / booked;
+            isPaid = amountPaid >= totalAmount;
+        }
+    }
+
     public void markAsNoShow() {
+        markAsNoShow(LocalDate.now());
+    }
+
+    public boolean markAsNoShow(LocalDate businessDate) {
         if (status == ReservationStatus.CONFIRMED && 
-            LocalDate.now().isAfter(checkInDate)) {
+            businessDate.isAfter(checkInDate)) {
             status = ReservationStatus.NO_SHOW;
+            return true;
+        }
+        return false;
+    }
+
+    // Posts one night's share of the total for an in-house guest; posting the same night twice does nothing
+    public double postRoomCharge(LocalDate businessDate) {
+        if (status != ReservationStatus.CHECKED_IN || businessDate.isBefore(checkInDate)
+                || !businessDate.isBefore(checkOutDate)
+                || (lastPostedDate != null && !businessDate.isAfter(lastPostedDate))) {
+            return 0.0;
         }
+        double charge = totalAmount / getNumberOfNights();
+        postedCharges += charge;
+        lastPostedDate = businessDate;
+        return charge;
     }
 
     public boolean makePayment(double amount, String paymentMethod) {
@@ -119,12 +187,19 @@ public class Reservation {
     }
 
     public boolean isUpcoming() {
+        return isUpcoming(LocalDate.now());
+    }
+
+    public boolean isUpcoming(LocalDate today) {
         return status == ReservationStatus.CONFIRMED && 
-               checkInDate.isAfter(LocalDate.now());
+               checkInDate.isAfter(today);
     }
 
     public boolean isCurrent() {
-        LocalDate today = LocalDate.now();
+        return isCurrent(LocalDate.now());
+    }
+
+    public boolean isCurrent(LocalDate today) {
         return status == ReservationStatus.CHECKED_IN ||
                (status == ReservationStatus.CONFIRMED && 
                 !checkInDate.isAfter(today) && checkOutDate.isAfter(today));
@@ -192,9 +267,14 @@ public class Reservation {
     public String getPaymentMethod() { return paymentMethod; }
     public double getDiscountAmount() { return discountAmount; }
     public String getDiscountReason() { return discountReason; }
+    public double getPostedCharges() { return postedCharges; }
+    public LocalDate getLastPostedDate() { return lastPostedDate; }
+    public boolean isLoyaltyCredited() { return loyaltyCredited; }
 
     public void setStatus(ReservationStatus status) { this.status = status; }
     public void setTotalAmount(double totalAmount) { this.totalAmount = totalAmount; }
     public void setSpecialRequests(String specialRequests) { this.specialRequests = specialRequests; }
     public void setNumberOfGuests(int numberOfGuests) { this.numberOfGuests = numberOfGuests; }
+    void setRoomNumber(String roomNumber) { this.roomNumber = roomNumber; }
+    void setLoyaltyCredited(boolean loyaltyCredited) { this.loyaltyCredited = loyaltyCredited; }
 }
\ No newline at end of file
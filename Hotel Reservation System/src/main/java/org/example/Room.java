@@ -21,7 +21,7 @@ public class Room {
 
     private String roomNumber;
     private RoomType type;
-    private RoomStatus status;
+    private volatile RoomStatus status;
     private int capacity;
     private boolean hasWifi;
     private boolean hasAirConditioning;
@@ -29,8 +29,14 @@ public class Room {
     private double pricePerNight;
     private String description;
     private int floor;
+    private final AvailabilityCalendar calendar;
 
     public Room(String roomNumber, RoomType type, int capacity, int floor) {
+        this(roomNumber, type, capacity, floor, LocalDate.now());
+    }
+
+    // The calendar tracks nights from calendarStart on; stays that end by then cannot be reserved
+    public Room(String roomNumber, RoomType type, int capacity, int floor, LocalDate calendarStart) {
         this.roomNumber = roomNumber;
         this.type = type;
         this.capacity = capacity;
@@ -40,6 +46,7 @@ public class Room {
         this.hasWifi = true;
         this.hasAirConditioning = true;
         this.hasBalcony = false;
+        this.calendar = new AvailabilityCalendar(calendarStart);
         setDefaultDescription();
     }
 
@@ -65,7 +72,19 @@ public class Room {
     }
 
     public boolean isAvailableForDates(LocalDate checkIn, LocalDate checkOut) {
-        return status == RoomStatus.AVAILABLE;
+        return isInService() && calendar.isFree(checkIn, checkOut);
+    }
+
+    public boolean isInService() {
+        return status != RoomStatus.MAINTENANCE && status != RoomStatus.OUT_OF_ORDER;
+    }
+
+    public boolean reserveDates(LocalDate checkIn, LocalDate checkOut) {
+        return isInService() && calendar.reserve(checkIn, checkOut);
+    }
+
+    public void releaseDates(LocalDate checkIn, LocalDate checkOut) {
+        calendar.release(checkIn, checkOut);
     }
 
     public void setStatus(RoomStatus status) {
@@ -131,6 +150,7 @@ public class Room {
     public double getPricePerNight() { return pricePerNight; }
     public String getDescription() { return description; }
     public int getFloor() { return floor; }
+    public AvailabilityCalendar getCalendar() { return calendar; }
 
     public void setHasWifi(boolean hasWifi) { this.hasWifi = hasWifi; }
     public void setHasAirConditioning(boolean hasAirConditioning) { this.hasAirConditioning = hasAirConditioning; }
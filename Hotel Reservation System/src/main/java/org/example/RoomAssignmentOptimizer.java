@@ -0,0 +1,336 @@
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Assigns a day's arrivals to rooms in bulk: VIPs first, packing stays against existing bookings so the
+// calendars are left with as few unsellable single-night holes as possible
+public class RoomAssignmentOptimizer {
+    public static class AssignmentResult {
+        private final LocalDate date;
+        private final int arrivals;
+        private final Map<Reservation, String> moves;
+        private final int gapsBefore;
+        private final int gapsAfter;
+        private final int upgrades;
+        private final boolean applied;
+
+        private AssignmentResult(LocalDate date, int arrivals, Map<Reservation, String> moves, int gapsBefore,
+                                 int gapsAfter, int upgrades, boolean applied) {
+            this.date = date;
+            this.arrivals = arrivals;
+            this.moves = moves;
+            this.gapsBefore = gapsBefore;
+            this.gapsAfter = gapsAfter;
+            this.upgrades = upgrades;
+            this.applied = applied;
+        }
+
+        public LocalDate getDate() { return date; }
+        public int getArrivals() { return arrivals; }
+        // Reservation to its new room number, for the reservations that changed room
+        public Map<Reservation, String> getMoves() { return moves; }
+        // Single free nights between bookings in the affected rooms, before and after the plan
+        public int getGapsBefore() { return gapsBefore; }
+        public int getGapsAfter() { return gapsAfter; }
+        public int getUpgrades() { return upgrades; }
+        // False when a room in the plan was booked by someone else before it could be applied
+        public boolean isApplied() { return applied; }
+
+        @Override
+        public String toString() {
+            return String.format("Assignment{date=%s, arrivals=%d, moves=%d, gaps=%d->%d, upgrades=%d, applied=%s}",
+                    date, arrivals, moves.size(), gapsBefore, gapsAfter, upgrades, applied);
+        }
+    }
+
+    // Costs are in arbitrary units; leaving a single-night hole outweighs every preference
+    private static final int GAP_COST = 1000;
+    private static final int ADJACENT_BONUS = 100;
+    private static final int PREFERRED_TYPE_BONUS = 50;
+    private static final int FLOOR_COST = 10;
+    private static final int MAX_FLOOR_COST = 40;
+    private static final int KEEP_ROOM_BONUS = 5;
+
+    private final BookingService bookingService;
+    private final GuestDirectory guestDirectory;
+
+    public RoomAssignmentOptimizer(BookingService bookingService, GuestDirectory guestDirectory) {
+        this.bookingService = bookingService;
+        this.guestDirectory = guestDirectory;
+    }
+
+    public AssignmentResult optimize(LocalDate date) {
+        List<Reservation> arrivals = new ArrayList<>();
+        for (Reservation reservation : bookingService.getReservations()) {
+            if (reservation.getCheckInDate().equals(date) && isMovable(reservation)) {
+                arrivals.add(reservation);
+            }
+        }
+        return optimize(date, arrivals);
+    }
+
+    public AssignmentResult optimize(LocalDate date, Collection<Reservation> reservations) {
+        List<Arrival> arrivals = new ArrayList<>();
+        long endDay = date.toEpochDay();
+        for (Reservation reservation : reservations) {
+            Room current = bookingService.getRoom(reservation.getRoomNumber());
+            if (current != null && isMovable(reservation) && !reservation.getCheckInDate().isBefore(date)) {
+                arrivals.add(new Arrival(reservation, current, guestDirectory.findById(reservation.getGuestId())));
+                endDay = Math.max(endDay, reservation.getCheckOutDate().toEpochDay());
+            }
+        }
+        arrivals.sort(Comparator.comparing((Arrival arrival) -> !arrival.vip)
+                .thenComparing(arrival -> -arrival.nights)
+                .thenComparing(arrival -> arrival.reservation.getReservationId()));
+
+        Plan plan = new Plan(date.toEpochDay(), endDay);
+        for (Arrival arrival : arrivals) {
+            plan.addType(arrival.current.getType());
+            if (arrival.upgradeType != null) {
+                plan.addType(arrival.upgradeType);
+            }
+        }
+        plan.load(bookingService.getRooms());
+        int gapsBefore = plan.countGaps();
+
+        Map<Arrival, Room> assignment = plan.assign(arrivals);
+
+        Map<Reservation, String> moves = new LinkedHashMap<>();
+        int upgrades = 0;
+        for (Map.Entry<Arrival, Room> entry : assignment.entrySet()) {
+            Arrival arrival = entry.getKey();
+            Room room = entry.getValue();
+            if (room != arrival.current) {
+                moves.put(arrival.reservation, room.getRoomNumber());
+                if (room.getType() != arrival.current.getType()) {
+                    upgrades++;
+                }
+            }
+        }
+        int gapsAfter = plan.countGaps();
+
+        boolean applied = moves.isEmpty() || bookingService.reassign(moves);
+        return new AssignmentResult(date, arrivals.size(), Collections.unmodifiableMap(moves), gapsBefore,
+                applied ? gapsAfter : gapsBefore, applied ? upgrades : 0, applied);
+    }
+
+    private static boolean isMovable(Reservation reservation) {
+        Reservation.ReservationStatus status = reservation.getStatus();
+        return status == Reservation.ReservationStatus.PENDING || status == Reservation.ReservationStatus.CONFIRMED;
+    }
+
+    private static class Arrival {
+        private final Reservation reservation;
+        private final Room current;
+        private final boolean vip;
+        private final int nights;
+        private final int preferredFloor;
+        private final Room.RoomType preferredType;
+        // VIPs may be moved up to the type they prefer when it is a better one than they booked
+        private final Room.RoomType upgradeType;
+
+        private Arrival(Reservation reservation, Room current, Guest guest) {
+            this.reservation = reservation;
+            this.current = current;
+            this.vip = guest != null && guest.isVip();
+            this.nights = (int) (reservation.getCheckOutDate().toEpochDay() - reservation.getCheckInDate().toEpochDay());
+            this.preferredFloor = guest == null ? 0 : guest.getPreferredFloor();
+            this.preferredType = guest == null ? null : parseType(guest.getPreferredRoomType());
+            this.upgradeType = vip && preferredType != null
+                    && preferredType.getBasePrice() > current.getType().getBasePrice() ? preferredType : null;
+        }
+
+        private static Room.RoomType parseType(String name) {
+            if (name != null) {
+                for (Room.RoomType type : Room.RoomType.values()) {
+                    if (type.name().equalsIgnoreCase(name)) {
+                        return type;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    // Booked nights of the candidate rooms from the arrival day to just past the last check-out,
+    // copied once so the whole day can be planned without touching the live calendars
+    private static class Plan {
+        private final long startDay;
+        private final int days;
+        private final Map<Room.RoomType, List<Room>> roomsByType;
+        private final Map<Room, BitSet> loaded;
+        private Map<Room, BitSet> nights;
+
+        private Plan(long startDay, long lastCheckOutDay) {
+            this.startDay = startDay;
+            // One night past the last check-out, to see whether a stay ends just before another booking
+            this.days = (int) (lastCheckOutDay - startDay) + 2;
+            this.roomsByType = new EnumMap<>(Room.RoomType.class);
+            this.loaded = new IdentityHashMap<>();
+        }
+
+        private void addType(Room.RoomType type) {
+            roomsByType.putIfAbsent(type, new ArrayList<>());
+        }
+
+        private void load(Collection<Room> inventory) {
+            for (Room room : inventory) {
+                List<Room> candidates = roomsByType.get(room.getType());
+                if (candidates == null || !room.isInService()) {
+                    continue;
+                }
+                candidates.add(room);
+                AvailabilityCalendar calendar = room.getCalendar();
+                BitSet booked = new BitSet(days);
+                for (int d = 0; d < days; d++) {
+                    if (calendar.isBooked(LocalDate.ofEpochDay(startDay + d))) {
+                        booked.set(d);
+                    }
+                }
+                loaded.put(room, booked);
+            }
+            for (List<Room> candidates : roomsByType.values()) {
+                candidates.sort(Comparator.comparing(Room::getRoomNumber));
+            }
+        }
+
+        // Greedy in priority order
+        private Map<Arrival, Room> assign(List<Arrival> arrivals) {
+            nights = new IdentityHashMap<>();
+            for (Map.Entry<Room, BitSet> entry : loaded.entrySet()) {
+                nights.put(entry.getKey(), (BitSet) entry.getValue().clone());
+            }
+            for (Arrival arrival : arrivals) {
+                BitSet current = nights.get(arrival.current);
+                if (current != null) {
+                    current.clear(from(arrival), to(arrival));
+                }
+            }
+
+            Map<Arrival, Room> assignment = new LinkedHashMap<>();
+            Map<Room, List<Arrival>> occupants = new IdentityHashMap<>();
+            ArrayDeque<Arrival> queue = new ArrayDeque<>(arrivals);
+            while (!queue.isEmpty()) {
+                Arrival arrival = queue.poll();
+                Room best = null;
+                int bestCost = Integer.MAX_VALUE;
+                for (Room room : candidates(arrival)) {
+                    int cost = cost(arrival, room);
+                    if (cost < bestCost) {
+                        best = room;
+                        bestCost = cost;
+                    }
+                }
+
+                if (best == null) {
+                    // Earlier picks took every fit, its own room included. It gets its own room back and whoever
+                    // overlaps it there is planned again. An arrival that falls back sits in its original room,
+                    // where no other arrival's original stay overlaps it, so a fallback never displaces another
+                    // fallback and this always ends.
+                    best = arrival.current;
+                    List<Arrival> displaced = new ArrayList<>();
+                    for (Arrival other : occupants.getOrDefault(best, Collections.emptyList())) {
+                        if (from(other) < to(arrival) && from(arrival) < to(other)) {
+                            displaced.add(other);
+                        }
+                    }
+                    for (Arrival other : displaced) {
+                        occupants.get(best).remove(other);
+                        nights.get(best).clear(from(other), to(other));
+                        assignment.remove(other);
+                        queue.addFirst(other);
+                    }
+                }
+                place(arrival, best, assignment);
+                occupants.computeIfAbsent(best, room -> new ArrayList<>()).add(arrival);
+            }
+            return assignment;
+        }
+
+        private List<Room> candidates(Arrival arrival) {
+            List<Room> booked = roomsByType.get(arrival.current.getType());
+            if (arrival.upgradeType == null) {
+                return booked;
+            }
+            List<Room> both = new ArrayList<>(booked);
+            both.addAll(roomsByType.get(arrival.upgradeType));
+            return both;
+        }
+
+        private void place(Arrival arrival, Room room, Map<Arrival, Room> assignment) {
+            BitSet booked = nights.get(room);
+            if (booked != null) {
+                booked.set(from(arrival), to(arrival));
+            }
+            assignment.put(arrival, room);
+        }
+
+        // Integer.MAX_VALUE when the room cannot take the stay
+        private int cost(Arrival arrival, Room room) {
+            if (room.getCapacity() < arrival.reservation.getNumberOfGuests()) {
+                return Integer.MAX_VALUE;
+            }
+            BitSet booked = nights.get(room);
+            int from = from(arrival);
+            int to = to(arrival);
+            int next = booked.nextSetBit(from);
+            if (next >= 0 && next < to) {
+                return Integer.MAX_VALUE;
+            }
+
+            int cost = 0;
+            if (from > 0) {
+                if (booked.get(from - 1)) {
+                    cost -= ADJACENT_BONUS;
+                } else if (from > 1 && booked.get(from - 2)) {
+                    cost += GAP_COST;
+                }
+            }
+            if (booked.get(to)) {
+                cost -= ADJACENT_BONUS;
+            } else if (to + 1 < days && booked.get(to + 1)) {
+                cost += GAP_COST;
+            }
+
+            if (arrival.preferredType == room.getType()) {
+                cost -= PREFERRED_TYPE_BONUS;
+            }
+            if (arrival.preferredFloor > 0) {
+                cost += Math.min(MAX_FLOOR_COST, FLOOR_COST * Math.abs(room.getFloor() - arrival.preferredFloor));
+            }
+            if (room == arrival.current) {
+                cost -= KEEP_ROOM_BONUS;
+            }
+            return cost;
+        }
+
+        private int countGaps() {
+            int gaps = 0;
+            for (BitSet booked : (nights == null ? loaded : nights).values()) {
+                for (int d = booked.nextClearBit(1); d < days - 1; d = booked.nextClearBit(d + 1)) {
+                    if (booked.get(d - 1) && booked.get(d + 1)) {
+                        gaps++;
+                    }
+                }
+            }
+            return gaps;
+        }
+
+        private int from(Arrival arrival) {
+            return (int) (arrival.reservation.getCheckInDate().toEpochDay() - startDay);
+        }
+
+        private int to(Arrival arrival) {
+            return (int) (arrival.reservation.getCheckOutDate().toEpochDay() - startDay);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class RoomSearchIndex implements BookingService.BookingListener, NightAudit.Rollover {
+    public static class Query {
+        private final LocalDate checkIn;
+        private final LocalDate checkOut;
+        private Room.RoomType type;
+        private int minCapacity;
+        private boolean wifi;
+        private boolean airConditioning;
+        private boolean balcony;
+        private Integer floor;
+
+        public Query(LocalDate checkIn, LocalDate checkOut) {
+            if (!checkOut.isAfter(checkIn)) {
+                throw new IllegalArgumentException("Check-out date must be after check-in date");
+            }
+            this.checkIn = checkIn;
+            this.checkOut = checkOut;
+        }
+
+        public Query type(Room.RoomType type) { this.type = type; return this; }
+        public Query minCapacity(int minCapacity) { this.minCapacity = minCapacity; return this; }
+        public Query wifi() { this.wifi = true; return this; }
+        public Query airConditioning() { this.airConditioning = true; return this; }
+        public Query balcony() { this.balcony = true; return this; }
+        public Query floor(int floor) { this.floor = floor; return this; }
+
+        public LocalDate getCheckIn() { return checkIn; }
+        public LocalDate getCheckOut() { return checkOut; }
+    }
+
+    // Attribute bitmaps over rooms numbered in price order, so walking set bits yields results cheapest first;
+    // replaced as a whole when a room's price or amenities change
+    private static class Layout {
+        private final Room[] rooms;
+        private final Map<Room, Integer> roomIds;
+        private final int wordCount;
+
+        private final long[] all;
+        private final long[][] byType;
+        private final long[][] capacityAtLeast;
+        private final long[] withWifi;
+        private final long[] withAirConditioning;
+        private final long[] withBalcony;
+        private final Map<Integer, long[]> byFloor;
+
+        private Layout(Room[] inventory) {
+            this.rooms = inventory.clone();
+            Arrays.sort(rooms, Comparator.comparingDouble(Room::getPricePerNight)
+                    .thenComparing(Room::getRoomNumber));
+            this.roomIds = new IdentityHashMap<>(rooms.length * 2);
+            this.wordCount = (rooms.length + 63) >>> 6;
+
+            this.all = new long[wordCount];
+            this.byType = new long[Room.RoomType.values().length][wordCount];
+            this.withWifi = new long[wordCount];
+            this.withAirConditioning = new long[wordCount];
+            this.withBalcony = new long[wordCount];
+            this.byFloor = new HashMap<>();
+
+            int maxCapacity = 0;
+            for (Room room : rooms) {
+                maxCapacity = Math.max(maxCapacity, room.getCapacity());
+            }
+            this.capacityAtLeast = new long[maxCapacity + 1][wordCount];
+
+            for (int id = 0; id < rooms.length; id++) {
+                Room room = rooms[id];
+                roomIds.put(room, id);
+                int word = id >>> 6;
+                long bit = 1L << id;
+
+                all[word] |= bit;
+                byType[room.getType().ordinal()][word] |= bit;
+                for (int c = 0; c <= room.getCapacity(); c++) {
+                    capacityAtLeast[c][word] |= bit;
+                }
+                if (room.hasWifi()) withWifi[word] |= bit;
+                if (room.hasAirConditioning()) withAirConditioning[word] |= bit;
+                if (room.hasBalcony()) withBalcony[word] |= bit;
+                byFloor.computeIfAbsent(room.getFloor(), f -> new long[wordCount])[word] |= bit;
+            }
+        }
+
+        private long[] capacityFilter(int minCapacity) {
+            if (minCapacity <= 0) {
+                return all;
+            }
+            return minCapacity < capacityAtLeast.length ? capacityAtLeast[minCapacity] : null;
+        }
+    }
+
+    // Searches and booking updates share the read lock, the bits themselves being atomic; rolling the window
+    // and rebuilding the layout take the write lock so no update lands on a day slot while it is reloaded
+    private final ReentrantReadWriteLock lock;
+    private volatile Layout layout;
+    // A ring of day bitmaps: the night baseDay + d lives in slot (baseDay + d) mod horizon
+    private final AtomicLongArray[] bookedByDay;
+    private volatile long baseDay;
+
+    public RoomSearchIndex(Collection<Room> inventory, int horizonDays) {
+        this(inventory, LocalDate.now(), horizonDays);
+    }
+
+    public RoomSearchIndex(Collection<Room> inventory, LocalDate baseDate, int horizonDays) {
+        if (horizonDays <= 0) {
+            throw new IllegalArgumentException("Horizon must be positive");
+        }
+
+        this.lock = new ReentrantReadWriteLock();
+        this.layout = new Layout(inventory.toArray(new Room[0]));
+        this.baseDay = baseDate.toEpochDay();
+        this.bookedByDay = new AtomicLongArray[horizonDays];
+        for (int d = 0; d < horizonDays; d++) {
+            bookedByDay[d] = new AtomicLongArray(layout.wordCount);
+            loadDay(baseDay + d);
+        }
+    }
+
+    private void loadDay(long day) {
+        LocalDate night = LocalDate.ofEpochDay(day);
+        Room[] rooms = layout.rooms;
+        for (int id = 0; id < rooms.length; id++) {
+            if (rooms[id].getCalendar().isBooked(night)) {
+                setBooked(id, slot(day), true);
+            }
+        }
+    }
+
+    private void clearDay(long day) {
+        AtomicLongArray words = bookedByDay[slot(day)];
+        for (int w = 0; w < words.length(); w++) {
+            words.set(w, 0);
+        }
+    }
+
+    // Moves the window forward so it starts at the given date, reloading only the nights that enter it
+    @Override
+    public LocalDate advanceTo(LocalDate date) {
+        lock.writeLock().lock();
+        try {
+            long from = baseDay;
+            long to = date.toEpochDay();
+            if (to <= from) {
+                return LocalDate.ofEpochDay(from);
+            }
+
+            int horizon = bookedByDay.length;
+            // Each night that leaves the window frees its slot for the night a full horizon later
+            long entering = Math.max(from + horizon, to);
+            baseDay = to;
+            for (long day = entering; day < to + horizon; day++) {
+                clearDay(day);
+                loadDay(day);
+            }
+            return date;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Call after changing a room's price or amenities; prices fix the numbering, so the whole index is rebuilt
+    public void reindex(Room room) {
+        lock.writeLock().lock();
+        try {
+            if (!layout.roomIds.containsKey(room)) {
+                throw new IllegalArgumentException("Room not indexed: " + room.getRoomNumber());
+            }
+            layout = new Layout(layout.rooms);
+            for (int d = 0; d < bookedByDay.length; d++) {
+                clearDay(baseDay + d);
+                loadDay(baseDay + d);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Room> search(Query query) {
+        return search(query, Integer.MAX_VALUE);
+    }
+
+    public List<Room> search(Query query, int limit) {
+        lock.readLock().lock();
+        try {
+            return search(layout, query, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Room> search(Layout layout, Query query, int limit) {
+        List<Room> results = new ArrayList<>(Math.min(limit, 16));
+        if (limit <= 0 || layout.rooms.length == 0) {
+            return results;
+        }
+
+        long[] type = query.type == null ? layout.all : layout.byType[query.type.ordinal()];
+        long[] capacity = layout.capacityFilter(query.minCapacity);
+        long[] floor = query.floor == null ? layout.all : layout.byFloor.get(query.floor);
+        if (capacity == null || floor == null) {
+            return results;
+        }
+        long[] wifi = query.wifi ? layout.withWifi : layout.all;
+        long[] airConditioning = query.airConditioning ? layout.withAirConditioning : layout.all;
+        long[] balcony = query.balcony ? layout.withBalcony : layout.all;
+
+        long firstDay = baseDay + dayOffset(query.checkIn);
+        long lastDay = baseDay + Math.min(dayOffset(query.checkOut), bookedByDay.length);
+
+        for (int w = 0; w < layout.wordCount; w++) {
+            long bits = type[w] & capacity[w] & floor[w] & wifi[w] & airConditioning[w] & balcony[w];
+            for (long d = firstDay; d < lastDay && bits != 0; d++) {
+                bits &= ~bookedByDay[slot(d)].get(w);
+            }
+
+            while (bits != 0) {
+                int id = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                // The bitmaps are a pre-filter; the room's own calendar and status have the final word
+                Room room = layout.rooms[id];
+                if (room.isAvailableForDates(query.checkIn, query.checkOut)) {
+                    results.add(room);
+                    if (results.size() == limit) {
+                        return results;
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    public int count(Query query) {
+        return search(query).size();
+    }
+
+    public void markBooked(Room room, LocalDate checkIn, LocalDate checkOut) {
+        update(room, checkIn, checkOut, true);
+    }
+
+    public void markReleased(Room room, LocalDate checkIn, LocalDate checkOut) {
+        update(room, checkIn, checkOut, false);
+    }
+
+    @Override
+    public void onBooked(Reservation reservation, Room room) {
+        markBooked(room, reservation.getCheckInDate(), reservation.getCheckOutDate());
+    }
+
+    @Override
+    public void onCancelled(Reservation reservation, Room room) {
+        markReleased(room, reservation.getCheckInDate(), reservation.getCheckOutDate());
+    }
+
+    @Override
+    public void onCheckedOutEarly(Reservation reservation, Room room, LocalDate bookedCheckOut) {
+        markReleased(room, reservation.getCheckOutDate(), bookedCheckOut);
+    }
+
+    private void update(Room room, LocalDate checkIn, LocalDate checkOut, boolean booked) {
+        lock.readLock().lock();
+        try {
+            Integer id = layout.roomIds.get(room);
+            if (id == null) {
+                return;
+            }
+            long from = Math.max(baseDay, checkIn.toEpochDay());
+            long to = Math.min(baseDay + bookedByDay.length, checkOut.toEpochDay());
+            for (long d = from; d < to; d++) {
+                setBooked(id, slot(d), booked);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void setBooked(int id, int slot, boolean booked) {
+        AtomicLongArray words = bookedByDay[slot];
+        int word = id >>> 6;
+        long bit = 1L << id;
+        if (booked) {
+            words.getAndUpdate(word, v -> v | bit);
+        } else {
+            words.getAndUpdate(word, v -> v & ~bit);
+        }
+    }
+
+    private int slot(long day) {
+        return (int) Math.floorMod(day, (long) bookedByDay.length);
+    }
+
+    private int dayOffset(LocalDate date) {
+        long offset = date.toEpochDay() - baseDay;
+        if (offset < 0) {
+            throw new IllegalArgumentException("Date " + date + " is before index start " + getBaseDate());
+        }
+        return (int) Math.min(offset, Integer.MAX_VALUE);
+    }
+
+    public int getRoomCount() { return layout.rooms.length; }
+    public int getHorizonDays() { return bookedByDay.length; }
+    public LocalDate getBaseDate() { return LocalDate.ofEpochDay(baseDay); }
+}
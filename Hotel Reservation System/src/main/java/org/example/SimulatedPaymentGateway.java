@@ -0,0 +1,59 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Local stand-in for a card processor: answers after a delay without holding a thread while it waits
+public class SimulatedPaymentGateway implements PaymentGateway {
+    private final long latencyMillis;
+    private final double transientFailureRate;
+    private final Executor executor;
+
+    public SimulatedPaymentGateway(long latencyMillis, double transientFailureRate) {
+        this(latencyMillis, transientFailureRate, ForkJoinPool.commonPool());
+    }
+
+    // Answers are computed on the given executor once the latency has passed
+    public SimulatedPaymentGateway(long latencyMillis, double transientFailureRate, Executor executor) {
+        if (latencyMillis < 0 || transientFailureRate < 0 || transientFailureRate >= 1) {
+            throw new IllegalArgumentException("Invalid gateway simulation settings");
+        }
+        this.latencyMillis = latencyMillis;
+        this.transientFailureRate = transientFailureRate;
+        this.executor = CompletableFuture.delayedExecutor(latencyMillis, TimeUnit.MILLISECONDS, executor);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> charge(Payment payment) {
+        return CompletableFuture.supplyAsync(() -> decide(payment), executor);
+    }
+
+    // A whole batch costs one round trip; a transient error fails the batch as a unit
+    @Override
+    public CompletableFuture<boolean[]> chargeBatch(List<Payment> payments) {
+        return CompletableFuture.supplyAsync(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < transientFailureRate) {
+                throw new GatewayException("Gateway unavailable for batch of " + payments.size());
+            }
+            boolean[] results = new boolean[payments.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = random.nextInt(100) < payments.get(i).getSuccessRateByMethod();
+            }
+            return results;
+        }, executor);
+    }
+
+    private boolean decide(Payment payment) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < transientFailureRate) {
+            throw new GatewayException("Gateway unavailable for " + payment.getPaymentId());
+        }
+        return random.nextInt(100) < payment.getSuccessRateByMethod();
+    }
+
+    public long getLatencyMillis() { return latencyMillis; }
+    public double getTransientFailureRate() { return transientFailureRate; }
+}
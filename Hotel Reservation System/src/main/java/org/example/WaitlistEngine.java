@@ -0,0 +1,309 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class WaitlistEngine implements BookingService.BookingListener {
+    public static class WaitlistRequest {
+        private final Guest guest;
+        private final Room.RoomType roomType;
+        private final LocalDate checkIn;
+        private final LocalDate checkOut;
+        private final int numberOfGuests;
+        private final boolean vip;
+        private final long sequence;
+        private final CompletableFuture<Reservation> allocation;
+
+        private WaitlistRequest(Guest guest, Room.RoomType roomType, LocalDate checkIn, LocalDate checkOut,
+                                int numberOfGuests, long sequence) {
+            this.guest = guest;
+            this.roomType = roomType;
+            this.checkIn = checkIn;
+            this.checkOut = checkOut;
+            this.numberOfGuests = numberOfGuests;
+            this.vip = guest.isVip();
+            this.sequence = sequence;
+            this.allocation = new CompletableFuture<>();
+        }
+
+        public Guest getGuest() { return guest; }
+        public Room.RoomType getRoomType() { return roomType; }
+        public LocalDate getCheckIn() { return checkIn; }
+        public LocalDate getCheckOut() { return checkOut; }
+        public int getNumberOfGuests() { return numberOfGuests; }
+        public boolean isVip() { return vip; }
+        // Completes with the reservation once a cancellation frees a suitable room; cancelled if withdrawn or expired
+        public CompletableFuture<Reservation> getAllocation() { return allocation; }
+    }
+
+    private static class Release {
+        private final Room room;
+        private final LocalDate from;
+        private final LocalDate to;
+
+        private Release(Room room, LocalDate from, LocalDate to) {
+            this.room = room;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    // VIP requests first, then first come first served
+    private static final Comparator<WaitlistRequest> PRIORITY =
+            Comparator.comparing((WaitlistRequest request) -> !request.vip).thenComparingLong(request -> request.sequence);
+
+    private final BookingService bookingService;
+    private final Executor executor;
+
+    // Per type: waiting requests bucketed by check-in day then length of stay, each bucket a priority queue.
+    // Requests in a bucket want the same nights, so one calendar check covers the whole bucket.
+    private final Map<Room.RoomType, TreeMap<Long, TreeSet<WaitlistRequest>>> waiting;
+    // Per type: number of waiting requests for each length of stay. The longest one bounds how far before a freed
+    // range an overlapping request can start, and drops again once those requests leave.
+    private final Map<Room.RoomType, TreeMap<Integer, Integer>> stayLengths;
+    private long nextSequence;
+    private int size;
+
+    private final ConcurrentLinkedQueue<Release> releases;
+    private final AtomicBoolean draining;
+
+    private static final int MAX_NIGHTS = (1 << 20) - 1;
+
+    public WaitlistEngine(BookingService bookingService) {
+        this(bookingService, ForkJoinPool.commonPool());
+    }
+
+    // Pass null to reallocate only when reallocate() is called
+    public WaitlistEngine(BookingService bookingService, Executor executor) {
+        this.bookingService = bookingService;
+        this.executor = executor;
+        this.waiting = new EnumMap<>(Room.RoomType.class);
+        this.stayLengths = new EnumMap<>(Room.RoomType.class);
+        this.releases = new ConcurrentLinkedQueue<>();
+        this.draining = new AtomicBoolean();
+    }
+
+    public synchronized WaitlistRequest join(Guest guest, Room.RoomType roomType, LocalDate checkIn, LocalDate checkOut,
+                                             int numberOfGuests) {
+        if (!checkOut.isAfter(checkIn)) {
+            throw new IllegalArgumentException("Check-out must be after check-in");
+        }
+        if (numberOfGuests <= 0) {
+            throw new IllegalArgumentException("Number of guests must be positive");
+        }
+        long nights = checkOut.toEpochDay() - checkIn.toEpochDay();
+        if (nights > MAX_NIGHTS) {
+            throw new IllegalArgumentException("Stay too long for the waitlist: " + nights + " nights");
+        }
+
+        WaitlistRequest request = new WaitlistRequest(guest, roomType, checkIn, checkOut, numberOfGuests, nextSequence++);
+        enqueue(request);
+        return request;
+    }
+
+    public synchronized boolean withdraw(WaitlistRequest request) {
+        if (!remove(request)) {
+            return false;
+        }
+        request.allocation.cancel(false);
+        return true;
+    }
+
+    // Drops requests whose check-in day has passed
+    public synchronized int expireBefore(LocalDate date) {
+        int expired = 0;
+        for (TreeMap<Long, TreeSet<WaitlistRequest>> buckets : waiting.values()) {
+            Iterator<TreeSet<WaitlistRequest>> days = buckets.headMap(bucketKey(date.toEpochDay(), 0), false).values().iterator();
+            while (days.hasNext()) {
+                for (WaitlistRequest request : days.next()) {
+                    request.allocation.cancel(false);
+                    forgetStay(request);
+                    expired++;
+                }
+                days.remove();
+            }
+        }
+        size -= expired;
+        return expired;
+    }
+
+    @Override
+    public void onBooked(Reservation reservation, Room room) {
+    }
+
+    // Runs under the room's stripe lock while later listeners have yet to hear of the release, so booking is deferred
+    @Override
+    public void onCancelled(Reservation reservation, Room room) {
+        release(new Release(room, reservation.getCheckInDate(), reservation.getCheckOutDate()));
+    }
+
+    @Override
+    public void onCheckedOutEarly(Reservation reservation, Room room, LocalDate bookedCheckOut) {
+        release(new Release(room, reservation.getCheckOutDate(), bookedCheckOut));
+    }
+
+    private void release(Release release) {
+        releases.add(release);
+        if (executor != null && draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            reallocate();
+        } finally {
+            draining.set(false);
+            // Releases queued while this ran, or left behind if it failed, get a drain of their own
+            if (!releases.isEmpty() && draining.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+    }
+
+    // Offers every room freed since the last call to the waitlist; returns the reservations created
+    public List<Reservation> reallocate() {
+        List<Reservation> allocated = new ArrayList<>();
+        Release release;
+        while ((release = releases.poll()) != null) {
+            offer(release, allocated);
+        }
+        return allocated;
+    }
+
+    // A freed room may fit several shorter requests, so keep going until nothing waiting fits
+    private void offer(Release release, List<Reservation> allocated) {
+        Room room = release.room;
+        while (true) {
+            WaitlistRequest request = takeBestFit(room, release.from.toEpochDay(), release.to.toEpochDay());
+            if (request == null) {
+                return;
+            }
+
+            Reservation reservation;
+            try {
+                reservation = bookingService.book(request.guest, room.getRoomNumber(), request.checkIn,
+                        request.checkOut, request.numberOfGuests);
+            } catch (RuntimeException e) {
+                // The request can never be booked as asked, e.g. its check-in has passed; it leaves the waitlist
+                request.allocation.completeExceptionally(e);
+                continue;
+            }
+            if (reservation == null) {
+                // Those nights were taken by a direct booking in the meantime; the request keeps its place and the
+                // rest of the release, which the calendar check now skips past, is still offered
+                synchronized (this) {
+                    enqueue(request);
+                }
+                continue;
+            }
+            request.allocation.complete(reservation);
+            allocated.add(reservation);
+        }
+    }
+
+    // Looks only at check-in days that can overlap the freed nights, taking the best fitting request of each bucket
+    private synchronized WaitlistRequest takeBestFit(Room room, long fromDay, long toDay) {
+        TreeMap<Long, TreeSet<WaitlistRequest>> buckets = waiting.get(room.getType());
+        if (buckets == null || !room.isInService()) {
+            return null;
+        }
+
+        // Requests starting before today cannot be booked any more, so they are left for expireBefore
+        long earliest = Math.max(fromDay - longestStay(room.getType()) + 1, LocalDate.now().toEpochDay());
+        NavigableMap<Long, TreeSet<WaitlistRequest>> overlapping = buckets.subMap(bucketKey(earliest, 0), true, bucketKey(toDay, 0), false);
+
+        WaitlistRequest best = null;
+        for (TreeSet<WaitlistRequest> queue : overlapping.values()) {
+            WaitlistRequest first = queue.first();
+            if ((best != null && PRIORITY.compare(first, best) > 0)
+                    || first.checkOut.toEpochDay() <= fromDay
+                    || !room.getCalendar().isFree(first.checkIn, first.checkOut)) {
+                continue;
+            }
+            for (WaitlistRequest request : queue) {
+                if (best != null && PRIORITY.compare(request, best) > 0) {
+                    break;
+                }
+                if (request.numberOfGuests <= room.getCapacity()) {
+                    best = request;
+                    break;
+                }
+            }
+        }
+
+        if (best != null) {
+            remove(best);
+        }
+        return best;
+    }
+
+    private void enqueue(WaitlistRequest request) {
+        waiting.computeIfAbsent(request.roomType, type -> new TreeMap<>())
+                .computeIfAbsent(bucketKey(request), key -> new TreeSet<>(PRIORITY))
+                .add(request);
+        stayLengths.computeIfAbsent(request.roomType, type -> new TreeMap<>()).merge(nights(request), 1, Integer::sum);
+        size++;
+    }
+
+    private boolean remove(WaitlistRequest request) {
+        TreeMap<Long, TreeSet<WaitlistRequest>> buckets = waiting.get(request.roomType);
+        long key = bucketKey(request);
+        TreeSet<WaitlistRequest> queue = buckets == null ? null : buckets.get(key);
+        if (queue == null || !queue.remove(request)) {
+            return false;
+        }
+        if (queue.isEmpty()) {
+            buckets.remove(key);
+        }
+        forgetStay(request);
+        size--;
+        return true;
+    }
+
+    private void forgetStay(WaitlistRequest request) {
+        stayLengths.get(request.roomType).computeIfPresent(nights(request), (nights, count) -> count == 1 ? null : count - 1);
+    }
+
+    private int longestStay(Room.RoomType roomType) {
+        TreeMap<Integer, Integer> lengths = stayLengths.get(roomType);
+        return lengths == null || lengths.isEmpty() ? 0 : lengths.lastKey();
+    }
+
+    private static int nights(WaitlistRequest request) {
+        return (int) (request.checkOut.toEpochDay() - request.checkIn.toEpochDay());
+    }
+
+    private static long bucketKey(WaitlistRequest request) {
+        return bucketKey(request.checkIn.toEpochDay(), nights(request));
+    }
+
+    // Orders by check-in day first so day ranges map to key ranges
+    private static long bucketKey(long checkInDay, int nights) {
+        return (checkInDay << 20) | nights;
+    }
+
+    public synchronized int size() { return size; }
+
+    public synchronized int getWaitingCount(Room.RoomType roomType) {
+        TreeMap<Long, TreeSet<WaitlistRequest>> buckets = waiting.get(roomType);
+        int count = 0;
+        if (buckets != null) {
+            for (TreeSet<WaitlistRequest> queue : buckets.values()) {
+                count += queue.size();
+            }
+        }
+        return count;
+    }
+}
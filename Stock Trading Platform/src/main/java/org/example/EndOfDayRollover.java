@@ -0,0 +1,256 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+public class EndOfDayRollover {
+    public static final int SNAPSHOT_MAGIC = 0x454F4431; // "EOD1"
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    public static class RolloverResult {
+        private final LocalDate tradingDate;
+        private final int symbolCount;
+        private final int portfolioCount;
+        private final double totalPortfolioValue;
+        private final double totalDailyProfitLoss;
+        private final long elapsedMillis;
+
+        private RolloverResult(LocalDate tradingDate, int symbolCount, int portfolioCount,
+                               double totalPortfolioValue, double totalDailyProfitLoss, long elapsedMillis) {
+            this.tradingDate = tradingDate;
+            this.symbolCount = symbolCount;
+            this.portfolioCount = portfolioCount;
+            this.totalPortfolioValue = totalPortfolioValue;
+            this.totalDailyProfitLoss = totalDailyProfitLoss;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public LocalDate getTradingDate() { return tradingDate; }
+        public int getSymbolCount() { return symbolCount; }
+        public int getPortfolioCount() { return portfolioCount; }
+        public double getTotalPortfolioValue() { return totalPortfolioValue; }
+        public double getTotalDailyProfitLoss() { return totalDailyProfitLoss; }
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        @Override
+        public String toString() {
+            return String.format("Rollover %s: %d symbols, %d portfolios, value $%.2f, P&L $%.2f in %d ms",
+                    tradingDate, symbolCount, portfolioCount, totalPortfolioValue, totalDailyProfitLoss, elapsedMillis);
+        }
+    }
+
+    // A snapshot file read back: one row per symbol and one per portfolio, in the order they were written
+    public static class Snapshot {
+        private final LocalDate tradingDate;
+        private final String[] symbols;
+        private final double[] open;
+        private final double[] high;
+        private final double[] low;
+        private final double[] close;
+        private final long[] volume;
+        private final String[] userIds;
+        private final double[] closingValue;
+        private final double[] dailyProfitLoss;
+
+        private Snapshot(LocalDate tradingDate, int symbolCount, int portfolioCount) {
+            this.tradingDate = tradingDate;
+            this.symbols = new String[symbolCount];
+            this.open = new double[symbolCount];
+            this.high = new double[symbolCount];
+            this.low = new double[symbolCount];
+            this.close = new double[symbolCount];
+            this.volume = new long[symbolCount];
+            this.userIds = new String[portfolioCount];
+            this.closingValue = new double[portfolioCount];
+            this.dailyProfitLoss = new double[portfolioCount];
+        }
+
+        public LocalDate getTradingDate() { return tradingDate; }
+        public int getSymbolCount() { return symbols.length; }
+        public String getSymbol(int i) { return symbols[i]; }
+        public double getOpen(int i) { return open[i]; }
+        public double getHigh(int i) { return high[i]; }
+        public double getLow(int i) { return low[i]; }
+        public double getClose(int i) { return close[i]; }
+        public long getVolume(int i) { return volume[i]; }
+        public int getPortfolioCount() { return userIds.length; }
+        public String getUserId(int i) { return userIds[i]; }
+        public double getClosingValue(int i) { return closingValue[i]; }
+        public double getDailyProfitLoss(int i) { return dailyProfitLoss[i]; }
+    }
+
+    private LocalDate lastTradingDate;
+
+    // Meant to run with the market closed. Everything is read first and the snapshot written before any portfolio
+    // or stock changes, so a failed write leaves the day open and the rollover can simply be run again
+    public synchronized RolloverResult run(LocalDate tradingDate, List<Stock> stocks, List<Portfolio> portfolios,
+                                           Map<String, Stock> stockMap, Path snapshotFile) throws IOException {
+        if (lastTradingDate != null && !tradingDate.isAfter(lastTradingDate)) {
+            throw new IllegalArgumentException("Trading date " + tradingDate + " is already rolled over");
+        }
+        long start = System.currentTimeMillis();
+
+        int symbolCount = stocks.size();
+        double[] open = new double[symbolCount];
+        double[] high = new double[symbolCount];
+        double[] low = new double[symbolCount];
+        double[] close = new double[symbolCount];
+        long[] volume = new long[symbolCount];
+
+        int portfolioCount = portfolios.size();
+        double[] closingValue = new double[portfolioCount];
+        double[] dailyProfitLoss = new double[portfolioCount];
+
+        IntStream.range(0, portfolioCount).parallel().forEach(i -> {
+            Portfolio portfolio = portfolios.get(i);
+            synchronized (portfolio) {
+                closingValue[i] = portfolio.getTotalValue(stockMap);
+                dailyProfitLoss[i] = portfolio.previewDailyClose(tradingDate, closingValue[i]);
+            }
+        });
+
+        IntStream.range(0, symbolCount).parallel().forEach(i -> {
+            Stock stock = stocks.get(i);
+            open[i] = stock.getOpenPrice();
+            high[i] = stock.getDayHigh();
+            low[i] = stock.getDayLow();
+            close[i] = stock.getCurrentPrice();
+            volume[i] = stock.getVolume();
+        });
+
+        if (snapshotFile != null) {
+            writeSnapshot(snapshotFile, tradingDate, stocks, open, high, low, close, volume,
+                    portfolios, closingValue, dailyProfitLoss);
+        }
+
+        // Closes are recorded once per trading date, so a portfolio already closed for it keeps its first close
+        IntStream.range(0, portfolioCount).parallel().forEach(i -> {
+            Portfolio portfolio = portfolios.get(i);
+            synchronized (portfolio) {
+                portfolio.recordDailyClose(tradingDate, closingValue[i]);
+            }
+        });
+        stocks.parallelStream().forEach(Stock::resetDailyStats);
+        lastTradingDate = tradingDate;
+
+        double totalValue = 0;
+        double totalProfitLoss = 0;
+        for (int i = 0; i < portfolioCount; i++) {
+            totalValue += closingValue[i];
+            totalProfitLoss += dailyProfitLoss[i];
+        }
+
+        return new RolloverResult(tradingDate, symbolCount, portfolioCount, totalValue, totalProfitLoss,
+                System.currentTimeMillis() - start);
+    }
+
+    public static Snapshot readSnapshot(Path snapshotFile) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+        try {
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a rollover snapshot: " + snapshotFile);
+            }
+            LocalDate tradingDate = LocalDate.ofEpochDay(buffer.getLong());
+            int symbolCount = buffer.getInt();
+            int portfolioCount = buffer.getInt();
+            if (symbolCount < 0 || portfolioCount < 0) {
+                throw new IOException("Corrupt rollover snapshot: " + snapshotFile);
+            }
+
+            Snapshot snapshot = new Snapshot(tradingDate, symbolCount, portfolioCount);
+            for (int i = 0; i < symbolCount; i++) {
+                snapshot.symbols[i] = readString(buffer);
+                snapshot.open[i] = buffer.getDouble();
+                snapshot.high[i] = buffer.getDouble();
+                snapshot.low[i] = buffer.getDouble();
+                snapshot.close[i] = buffer.getDouble();
+                snapshot.volume[i] = buffer.getLong();
+            }
+            for (int i = 0; i < portfolioCount; i++) {
+                snapshot.userIds[i] = readString(buffer);
+                snapshot.closingValue[i] = buffer.getDouble();
+                snapshot.dailyProfitLoss[i] = buffer.getDouble();
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Trailing bytes in rollover snapshot: " + snapshotFile);
+            }
+            return snapshot;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated rollover snapshot: " + snapshotFile, e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Layout: magic, epoch day, symbol count, portfolio count, then fixed-order symbol and portfolio records
+    private void writeSnapshot(Path snapshotFile, LocalDate tradingDate, List<Stock> stocks,
+                               double[] open, double[] high, double[] low, double[] close, long[] volume,
+                               List<Portfolio> portfolios, double[] closingValue, double[] dailyProfitLoss)
+            throws IOException {
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putLong(tradingDate.toEpochDay());
+            buffer.putInt(stocks.size());
+            buffer.putInt(portfolios.size());
+
+            for (int i = 0; i < stocks.size(); i++) {
+                byte[] symbol = encode(stocks.get(i).getSymbol());
+                ensureRemaining(channel, buffer, 2 + symbol.length + 40);
+                buffer.putShort((short) symbol.length).put(symbol);
+                buffer.putDouble(open[i]).putDouble(high[i]).putDouble(low[i]).putDouble(close[i]).putLong(volume[i]);
+            }
+
+            for (int i = 0; i < portfolios.size(); i++) {
+                byte[] userId = encode(portfolios.get(i).getUserId());
+                ensureRemaining(channel, buffer, 2 + userId.length + 16);
+                buffer.putShort((short) userId.length).put(userId);
+                buffer.putDouble(closingValue[i]).putDouble(dailyProfitLoss[i]);
+            }
+
+            flush(channel, buffer);
+            channel.force(true);
+        }
+
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Lengths are written as an unsigned short
+    private static byte[] encode(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Identifier too long for snapshot: " + value.substring(0, 32) + "...");
+        }
+        return bytes;
+    }
+
+    private static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
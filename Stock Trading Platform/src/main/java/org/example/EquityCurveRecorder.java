@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class EquityCurveRecorder {
+    public enum Resolution {
+        SECOND(1_000L, 3_600),
+        MINUTE(60_000L, 7 * 1_440),
+        DAY(86_400_000L, 10 * 365);
+
+        private final long bucketMillis;
+        private final int capacity;
+
+        Resolution(long bucketMillis, int capacity) {
+            this.bucketMillis = bucketMillis;
+            this.capacity = capacity;
+        }
+
+        public long getBucketMillis() { return bucketMillis; }
+        public int getCapacity() { return capacity; }
+    }
+
+    private static final double TRADING_DAYS_PER_YEAR = 252.0;
+
+    // Last value per time bucket, kept in a ring that grows on demand up to the resolution's capacity
+    private static class Tier {
+        private final Resolution resolution;
+        private long[] buckets = new long[16];
+        private double[] values = new double[16];
+        private int head;
+        private int size;
+
+        private Tier(Resolution resolution) {
+            this.resolution = resolution;
+        }
+
+        // Returns true when the value opened a new bucket
+        private boolean record(long timeMillis, double value) {
+            long bucket = Math.floorDiv(timeMillis, resolution.bucketMillis);
+
+            if (size > 0) {
+                int last = (head + size - 1) % buckets.length;
+                if (buckets[last] == bucket) {
+                    values[last] = value;
+                    return false;
+                }
+            }
+
+            if (size < buckets.length) {
+                buckets[size] = bucket;
+                values[size] = value;
+                size++;
+                if (size == buckets.length && size < resolution.capacity) {
+                    int capacity = Math.min(resolution.capacity, size * 2);
+                    buckets = Arrays.copyOf(buckets, capacity);
+                    values = Arrays.copyOf(values, capacity);
+                }
+            } else {
+                buckets[head] = bucket;
+                values[head] = value;
+                head = (head + 1) % buckets.length;
+            }
+            return true;
+        }
+
+        private double valueFromEnd(int offset) {
+            return values[(head + size - 1 - offset) % buckets.length];
+        }
+
+        private int copy(long[] timesOut, double[] valuesOut) {
+            int count = Math.min(size, Math.min(timesOut.length, valuesOut.length));
+            int start = size - count;
+            for (int i = 0; i < count; i++) {
+                int index = (head + start + i) % buckets.length;
+                timesOut[i] = buckets[index] * resolution.bucketMillis;
+                valuesOut[i] = values[index];
+            }
+            return count;
+        }
+    }
+
+    public static class EquityCurve {
+        private final Tier[] tiers;
+        private double lastValue = Double.NaN;
+        private long lastTimeMillis;
+        private long sampleCount;
+        private double peakValue;
+        private double maxDrawdown;
+        private long dailyReturnCount;
+        private double dailyReturnMean;
+        private double dailyReturnM2;
+
+        private EquityCurve() {
+            Resolution[] resolutions = Resolution.values();
+            this.tiers = new Tier[resolutions.length];
+            for (int i = 0; i < resolutions.length; i++) {
+                tiers[i] = new Tier(resolutions[i]);
+            }
+        }
+
+        public synchronized boolean record(long timeMillis, double value) {
+            if (value == lastValue) {
+                return false;
+            }
+
+            lastValue = value;
+            lastTimeMillis = timeMillis;
+            sampleCount++;
+
+            if (value > peakValue) {
+                peakValue = value;
+            } else if (peakValue > 0) {
+                double drawdown = (peakValue - value) / peakValue;
+                if (drawdown > maxDrawdown) {
+                    maxDrawdown = drawdown;
+                }
+            }
+
+            for (Tier tier : tiers) {
+                boolean newBucket = tier.record(timeMillis, value);
+                if (newBucket && tier.resolution == Resolution.DAY && tier.size >= 3) {
+                    addDailyReturn(tier.valueFromEnd(1), tier.valueFromEnd(2));
+                }
+            }
+            return true;
+        }
+
+        // Welford's update over closed-day returns, so Sharpe needs no rescan
+        private void addDailyReturn(double close, double previousClose) {
+            if (previousClose <= 0) {
+                return;
+            }
+            double dailyReturn = close / previousClose - 1.0;
+            dailyReturnCount++;
+            double delta = dailyReturn - dailyReturnMean;
+            dailyReturnMean += delta / dailyReturnCount;
+            dailyReturnM2 += delta * (dailyReturn - dailyReturnMean);
+        }
+
+        public synchronized double getMaxDrawdown() { return maxDrawdown; }
+
+        public synchronized double getCurrentDrawdown() {
+            return peakValue > 0 ? (peakValue - lastValue) / peakValue : 0.0;
+        }
+
+        public synchronized double getSharpeRatio() {
+            if (dailyReturnCount < 2) {
+                return 0.0;
+            }
+            double deviation = Math.sqrt(dailyReturnM2 / (dailyReturnCount - 1));
+            return deviation == 0 ? 0.0 : dailyReturnMean / deviation * Math.sqrt(TRADING_DAYS_PER_YEAR);
+        }
+
+        public synchronized int getSeries(Resolution resolution, long[] timesOut, double[] valuesOut) {
+            return tiers[resolution.ordinal()].copy(timesOut, valuesOut);
+        }
+
+        public synchronized int getPointCount(Resolution resolution) { return tiers[resolution.ordinal()].size; }
+        public synchronized double getLastValue() { return lastValue; }
+        public synchronized long getLastTimeMillis() { return lastTimeMillis; }
+        public synchronized long getSampleCount() { return sampleCount; }
+        public synchronized double getPeakValue() { return peakValue; }
+        public synchronized long getDailyReturnCount() { return dailyReturnCount; }
+    }
+
+    private final Map<String, EquityCurve> curves;
+
+    public EquityCurveRecorder() {
+        this.curves = new ConcurrentHashMap<>();
+    }
+
+    public boolean record(Portfolio portfolio, Map<String, Stock> stockMap, long timeMillis) {
+        double value;
+        synchronized (portfolio) {
+            value = portfolio.getTotalValue(stockMap);
+        }
+        return record(portfolio.getUserId(), timeMillis, value);
+    }
+
+    public boolean record(String userId, long timeMillis, double value) {
+        return curves.computeIfAbsent(userId, k -> new EquityCurve()).record(timeMillis, value);
+    }
+
+    public EquityCurve getCurve(String userId) {
+        return curves.get(userId);
+    }
+
+    public double getMaxDrawdown(String userId) {
+        EquityCurve curve = curves.get(userId);
+        return curve == null ? 0.0 : curve.getMaxDrawdown();
+    }
+
+    public double getSharpeRatio(String userId) {
+        EquityCurve curve = curves.get(userId);
+        return curve == null ? 0.0 : curve.getSharpeRatio();
+    }
+
+    public int getAccountCount() {
+        return curves.size();
+    }
+}
@@ -0,0 +1,371 @@
+import java.util.Arrays;
+
+public class IndicatorSet implements Stock.PriceListener {
+    public abstract static class Indicator {
+        private final String name;
+        protected long samples;
+        // Updates run under the owning set's monitor once the indicator is added, so the getters take it as well
+        private volatile Object lock = this;
+
+        protected Indicator(String name) {
+            this.name = name;
+        }
+
+        abstract void update(double price, long volumeDelta);
+
+        void onNewSession() {
+        }
+
+        abstract double value();
+        abstract boolean ready();
+
+        public double getValue() {
+            synchronized (lock) {
+                return value();
+            }
+        }
+
+        public boolean isReady() {
+            synchronized (lock) {
+                return ready();
+            }
+        }
+
+        public long getSamples() {
+            synchronized (lock) {
+                return samples;
+            }
+        }
+
+        public String getName() { return name; }
+        protected Object lock() { return lock; }
+
+        @Override
+        public String toString() {
+            synchronized (lock) {
+                return ready() ? String.format("%s=%.4f", name, value()) : name + "=n/a";
+            }
+        }
+    }
+
+    // Fixed window with a running sum; the sum is rebuilt once per wrap to stop rounding drift
+    private static class PriceWindow {
+        private final double[] values;
+        private int next;
+        private int count;
+        private double sum;
+        private double sumOfSquares;
+
+        private PriceWindow(int period) {
+            if (period <= 0) {
+                throw new IllegalArgumentException("Period must be positive");
+            }
+            this.values = new double[period];
+        }
+
+        private void add(double value) {
+            if (count == values.length) {
+                double evicted = values[next];
+                sum -= evicted;
+                sumOfSquares -= evicted * evicted;
+            } else {
+                count++;
+            }
+            values[next] = value;
+            sum += value;
+            sumOfSquares += value * value;
+
+            if (++next == values.length) {
+                next = 0;
+                resum();
+            }
+        }
+
+        private void resum() {
+            double s = 0;
+            double sq = 0;
+            for (int i = 0; i < count; i++) {
+                s += values[i];
+                sq += values[i] * values[i];
+            }
+            sum = s;
+            sumOfSquares = sq;
+        }
+
+        private boolean isFull() { return count == values.length; }
+
+        private double mean() { return count == 0 ? 0.0 : sum / count; }
+
+        private double standardDeviation() {
+            if (count == 0) return 0.0;
+            double mean = sum / count;
+            return Math.sqrt(Math.max(0.0, sumOfSquares / count - mean * mean));
+        }
+    }
+
+    public static class SimpleMovingAverage extends Indicator {
+        private final PriceWindow window;
+
+        public SimpleMovingAverage(int period) {
+            super("SMA(" + period + ")");
+            this.window = new PriceWindow(period);
+        }
+
+        @Override
+        void update(double price, long volumeDelta) {
+            window.add(price);
+            samples++;
+        }
+
+        @Override
+        double value() { return window.mean(); }
+
+        @Override
+        boolean ready() { return window.isFull(); }
+    }
+
+    public static class ExponentialMovingAverage extends Indicator {
+        private final int period;
+        private final double alpha;
+        private double value;
+
+        public ExponentialMovingAverage(int period) {
+            super("EMA(" + period + ")");
+            if (period <= 0) {
+                throw new IllegalArgumentException("Period must be positive");
+            }
+            this.period = period;
+            this.alpha = 2.0 / (period + 1);
+        }
+
+        @Override
+        void update(double price, long volumeDelta) {
+            value = samples == 0 ? price : value + alpha * (price - value);
+            samples++;
+        }
+
+        @Override
+        double value() { return value; }
+
+        @Override
+        boolean ready() { return samples >= period; }
+    }
+
+    public static class RelativeStrengthIndex extends Indicator {
+        private final int period;
+        private double previousPrice;
+        private double averageGain;
+        private double averageLoss;
+
+        public RelativeStrengthIndex(int period) {
+            super("RSI(" + period + ")");
+            if (period <= 0) {
+                throw new IllegalArgumentException("Period must be positive");
+            }
+            this.period = period;
+        }
+
+        @Override
+        void update(double price, long volumeDelta) {
+            if (samples > 0) {
+                double change = price - previousPrice;
+                double gain = change > 0 ? change : 0.0;
+                double loss = change < 0 ? -change : 0.0;
+
+                if (samples <= period) {
+                    // Seed with a plain average over the first period, then switch to Wilder smoothing
+                    averageGain += (gain - averageGain) / samples;
+                    averageLoss += (loss - averageLoss) / samples;
+                } else {
+                    averageGain = (averageGain * (period - 1) + gain) / period;
+                    averageLoss = (averageLoss * (period - 1) + loss) / period;
+                }
+            }
+            previousPrice = price;
+            samples++;
+        }
+
+        @Override
+        double value() {
+            if (averageLoss == 0) {
+                return averageGain == 0 ? 50.0 : 100.0;
+            }
+            return 100.0 - 100.0 / (1.0 + averageGain / averageLoss);
+        }
+
+        @Override
+        boolean ready() { return samples > period; }
+    }
+
+    public static class VolumeWeightedAveragePrice extends Indicator {
+        private double priceVolume;
+        private long volume;
+        private double lastPrice;
+
+        public VolumeWeightedAveragePrice() {
+            super("VWAP");
+        }
+
+        @Override
+        void update(double price, long volumeDelta) {
+            if (volumeDelta > 0) {
+                priceVolume += price * volumeDelta;
+                volume += volumeDelta;
+            }
+            lastPrice = price;
+            samples++;
+        }
+
+        @Override
+        void onNewSession() {
+            priceVolume = 0;
+            volume = 0;
+        }
+
+        @Override
+        double value() { return volume == 0 ? lastPrice : priceVolume / volume; }
+
+        @Override
+        boolean ready() { return volume > 0; }
+
+        public long getSessionVolume() {
+            synchronized (lock()) {
+                return volume;
+            }
+        }
+    }
+
+    public static class BollingerBands extends Indicator {
+        private final PriceWindow window;
+        private final double width;
+
+        public BollingerBands(int period, double width) {
+            super("BB(" + period + "," + width + ")");
+            this.window = new PriceWindow(period);
+            this.width = width;
+        }
+
+        @Override
+        void update(double price, long volumeDelta) {
+            window.add(price);
+            samples++;
+        }
+
+        @Override
+        double value() { return window.mean(); }
+
+        @Override
+        boolean ready() { return window.isFull(); }
+
+        public double getMiddleBand() {
+            synchronized (lock()) {
+                return window.mean();
+            }
+        }
+
+        public double getUpperBand() {
+            synchronized (lock()) {
+                return window.mean() + width * window.standardDeviation();
+            }
+        }
+
+        public double getLowerBand() {
+            synchronized (lock()) {
+                return window.mean() - width * window.standardDeviation();
+            }
+        }
+
+        public double getBandwidth() {
+            synchronized (lock()) {
+                return 2 * width * window.standardDeviation();
+            }
+        }
+    }
+
+    private final Stock stock;
+    private Indicator[] indicators;
+    private int indicatorCount;
+    private long lastVolume;
+    private boolean attached;
+
+    public IndicatorSet(Stock stock) {
+        this.stock = stock;
+        this.indicators = new Indicator[8];
+        this.lastVolume = stock.getVolume();
+    }
+
+    public synchronized <T extends Indicator> T add(T indicator) {
+        Indicator added = indicator;
+        if (added.lock != added) {
+            throw new IllegalArgumentException("Indicator " + added.getName() + " already belongs to a set");
+        }
+        added.lock = this;
+        if (indicatorCount == indicators.length) {
+            indicators = Arrays.copyOf(indicators, indicatorCount * 2);
+        }
+        indicators[indicatorCount++] = indicator;
+        return indicator;
+    }
+
+    public synchronized void attach() {
+        if (!attached) {
+            stock.addPriceListener(this);
+            attached = true;
+        }
+    }
+
+    public synchronized void detach() {
+        if (attached) {
+            stock.removePriceListener(this);
+            attached = false;
+        }
+    }
+
+    @Override
+    public synchronized void onPriceUpdate(Stock stock, double oldPrice, double newPrice) {
+        // Volume added after a price update is credited at the next tick
+        long volume = stock.getVolume();
+        long volumeDelta = Math.max(0, volume - lastVolume);
+        lastVolume = volume;
+
+        for (int i = 0; i < indicatorCount; i++) {
+            indicators[i].update(newPrice, volumeDelta);
+        }
+    }
+
+    @Override
+    public void onDailyReset(Stock stock) {
+        startSession();
+    }
+
+    // Session indicators such as VWAP start over; called by the stock's daily reset, or directly by a feed that
+    // knows its own session boundaries
+    public synchronized void startSession() {
+        for (int i = 0; i < indicatorCount; i++) {
+            indicators[i].onNewSession();
+        }
+        lastVolume = stock.getVolume();
+    }
+
+    public Stock getStock() { return stock; }
+    public synchronized int getIndicatorCount() { return indicatorCount; }
+    public synchronized Indicator getIndicator(int index) { return indicators[index]; }
+
+    public synchronized Indicator getIndicator(String name) {
+        for (int i = 0; i < indicatorCount; i++) {
+            if (indicators[i].getName().equals(name)) {
+                return indicators[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder(stock.getSymbol()).append(':');
+        for (int i = 0; i < indicatorCount; i++) {
+            result.append(' ').append(indicators[i]);
+        }
+        return result.toString();
+    }
+}
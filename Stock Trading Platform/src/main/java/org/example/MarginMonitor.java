@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MarginMonitor implements Stock.PriceListener {
+    public interface MarginCallListener {
+        void onMarginCall(Portfolio portfolio, double equity, double maintenanceRequirement);
+        void onMarginCallCleared(Portfolio portfolio);
+    }
+
+    // Holders of one symbol, stored as parallel arrays so a tick is a tight loop
+    private static class SymbolPositions {
+        private int[] accounts = new int[8];
+        private int[] quantities = new int[8];
+        private int size;
+        // The price holders are currently valued at. Ticks move it, so a refresh from inside a tick that has not
+        // reached this monitor yet still gets that tick's change exactly once.
+        private double price;
+
+        private int add(int account, int quantity) {
+            if (size == accounts.length) {
+                accounts = Arrays.copyOf(accounts, size * 2);
+                quantities = Arrays.copyOf(quantities, size * 2);
+            }
+            accounts[size] = account;
+            quantities[size] = quantity;
+            return size++;
+        }
+    }
+
+    private final Map<String, Stock> stockMap;
+    private final Map<Portfolio, Integer> accountIndex;
+    private final Map<String, SymbolPositions> positionsBySymbol;
+    private final List<MarginCallListener> listeners;
+
+    private Portfolio[] portfolios = new Portfolio[16];
+    private List<Map<String, Integer>> positionSlots = new ArrayList<>();
+    private double[] netCash = new double[16];
+    private double[] longValue = new double[16];
+    private boolean[] inMarginCall = new boolean[16];
+    private int accountCount;
+    private int marginCallCount;
+
+    public MarginMonitor(Map<String, Stock> stockMap) {
+        this.stockMap = stockMap;
+        this.accountIndex = new HashMap<>();
+        this.positionsBySymbol = new HashMap<>();
+        this.listeners = new ArrayList<>();
+    }
+
+    public synchronized void addListener(MarginCallListener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void register(Portfolio portfolio) {
+        if (accountIndex.containsKey(portfolio)) {
+            refresh(portfolio);
+            return;
+        }
+
+        if (accountCount == portfolios.length) {
+            int capacity = accountCount * 2;
+            portfolios = Arrays.copyOf(portfolios, capacity);
+            netCash = Arrays.copyOf(netCash, capacity);
+            longValue = Arrays.copyOf(longValue, capacity);
+            inMarginCall = Arrays.copyOf(inMarginCall, capacity);
+        }
+
+        int account = accountCount++;
+        portfolios[account] = portfolio;
+        positionSlots.add(new HashMap<>());
+        accountIndex.put(portfolio, account);
+        refresh(portfolio);
+    }
+
+    // Stops watching the portfolio; an open margin call is dropped without a cleared notification. The last account
+    // takes the freed index so the arrays stay dense
+    public synchronized boolean unregister(Portfolio portfolio) {
+        Integer index = accountIndex.remove(portfolio);
+        if (index == null) {
+            return false;
+        }
+        int account = index;
+
+        Map<String, Integer> slots = positionSlots.get(account);
+        for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+            removeSlot(entry.getKey(), entry.getValue());
+        }
+        if (inMarginCall[account]) {
+            marginCallCount--;
+        }
+
+        int last = --accountCount;
+        if (account != last) {
+            Portfolio moved = portfolios[last];
+            for (Map.Entry<String, Integer> entry : positionSlots.get(last).entrySet()) {
+                positionsBySymbol.get(entry.getKey()).accounts[entry.getValue()] = account;
+            }
+            portfolios[account] = moved;
+            positionSlots.set(account, positionSlots.get(last));
+            netCash[account] = netCash[last];
+            longValue[account] = longValue[last];
+            inMarginCall[account] = inMarginCall[last];
+            accountIndex.put(moved, account);
+        }
+        portfolios[last] = null;
+        positionSlots.remove(last);
+        netCash[last] = 0;
+        longValue[last] = 0;
+        inMarginCall[last] = false;
+        return true;
+    }
+
+    // Must be called after each trade, deposit or withdrawal on a registered portfolio; takes the portfolio's lock,
+    // so call it after releasing that lock
+    public synchronized void refresh(Portfolio portfolio) {
+        Integer index = accountIndex.get(portfolio);
+        if (index == null) {
+            return;
+        }
+        int account = index;
+
+        synchronized (portfolio) {
+            refreshLocked(account, portfolio);
+        }
+        evaluate(account);
+    }
+
+    private void refreshLocked(int account, Portfolio portfolio) {
+        Map<String, Integer> slots = positionSlots.get(account);
+        for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+            removeSlot(entry.getKey(), entry.getValue());
+        }
+        slots.clear();
+
+        double value = 0;
+        for (Portfolio.StockHolding holding : portfolio.getHoldings().values()) {
+            Stock stock = stockMap.get(holding.getSymbol());
+            if (stock == null) {
+                continue;
+            }
+            SymbolPositions positions = positionsBySymbol.get(holding.getSymbol());
+            if (positions == null) {
+                positions = new SymbolPositions();
+                positionsBySymbol.put(holding.getSymbol(), positions);
+                stock.addPriceListener(this);
+            }
+            if (positions.size == 0) {
+                positions.price = stock.getCurrentPrice();
+            }
+            slots.put(holding.getSymbol(), positions.add(account, holding.getQuantity()));
+            value += holding.getCurrentValue(positions.price);
+        }
+
+        netCash[account] = portfolio.getCashBalance() - portfolio.getBorrowedBalance();
+        longValue[account] = value;
+    }
+
+    private void removeSlot(String symbol, int slot) {
+        SymbolPositions positions = positionsBySymbol.get(symbol);
+        int last = --positions.size;
+        if (slot != last) {
+            int movedAccount = positions.accounts[last];
+            positions.accounts[slot] = movedAccount;
+            positions.quantities[slot] = positions.quantities[last];
+            positionSlots.get(movedAccount).put(symbol, slot);
+        }
+    }
+
+    @Override
+    public synchronized void onPriceUpdate(Stock stock, double oldPrice, double newPrice) {
+        SymbolPositions positions = positionsBySymbol.get(stock.getSymbol());
+        if (positions == null || positions.size == 0) {
+            return;
+        }
+
+        double delta = newPrice - positions.price;
+        positions.price = newPrice;
+        if (delta == 0) {
+            return;
+        }
+
+        int[] accounts = positions.accounts;
+        int[] quantities = positions.quantities;
+        for (int i = 0; i < positions.size; i++) {
+            int account = accounts[i];
+            longValue[account] += quantities[i] * delta;
+            evaluate(account);
+        }
+    }
+
+    private void evaluate(int account) {
+        double equity = netCash[account] + longValue[account];
+        double requirement = longValue[account] * Portfolio.MAINTENANCE_MARGIN_RATE;
+        boolean call = netCash[account] < 0 && equity < requirement;
+
+        if (call == inMarginCall[account]) {
+            return;
+        }
+
+        inMarginCall[account] = call;
+        if (call) {
+            marginCallCount++;
+            for (MarginCallListener listener : listeners) {
+                listener.onMarginCall(portfolios[account], equity, requirement);
+            }
+        } else {
+            marginCallCount--;
+            for (MarginCallListener listener : listeners) {
+                listener.onMarginCallCleared(portfolios[account]);
+            }
+        }
+    }
+
+    public synchronized boolean isInMarginCall(Portfolio portfolio) {
+        Integer account = accountIndex.get(portfolio);
+        return account != null && inMarginCall[account];
+    }
+
+    public synchronized double getEquity(Portfolio portfolio) {
+        Integer account = accountIndex.get(portfolio);
+        return account == null ? 0.0 : netCash[account] + longValue[account];
+    }
+
+    public synchronized List<Portfolio> getAccountsInMarginCall() {
+        List<Portfolio> result = new ArrayList<>(marginCallCount);
+        for (int i = 0; i < accountCount; i++) {
+            if (inMarginCall[i]) {
+                result.add(portfolios[i]);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int getMarginCallCount() { return marginCallCount; }
+    public synchronized int getAccountCount() { return accountCount; }
+}
@@ -0,0 +1,323 @@
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class OrderPipeline {
+    public enum Side {
+        BUY, SELL
+    }
+
+    public enum OrderState {
+        NEW, DECODED, APPROVED, REJECTED, EXECUTED, FAILED
+    }
+
+    public interface Journal {
+        void append(Transaction transaction);
+        void flush();
+    }
+
+    public static class OrderEvent {
+        private String userId;
+        private String symbol;
+        private Side side;
+        private int quantity;
+        private double commission;
+        private User user;
+        private Stock stock;
+        private OrderState state;
+        private Transaction transaction;
+        private RuntimeException failure;
+
+        private void reset(String userId, String symbol, Side side, int quantity, double commission) {
+            this.userId = userId;
+            this.symbol = symbol;
+            this.side = side;
+            this.quantity = quantity;
+            this.commission = commission;
+            this.user = null;
+            this.stock = null;
+            this.transaction = null;
+            this.failure = null;
+            this.state = OrderState.NEW;
+        }
+
+        public String getUserId() { return userId; }
+        public String getSymbol() { return symbol; }
+        public Side getSide() { return side; }
+        public int getQuantity() { return quantity; }
+        public double getCommission() { return commission; }
+        public User getUser() { return user; }
+        public Stock getStock() { return stock; }
+        public OrderState getState() { return state; }
+        public Transaction getTransaction() { return transaction; }
+        // What a stage threw while handling this order, if anything
+        public RuntimeException getFailure() { return failure; }
+    }
+
+    private abstract class Stage implements Runnable {
+        private final String name;
+        private volatile long cursor = -1;
+        private Stage upstream;
+        private Thread thread;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        long upstreamCursor() {
+            return upstream == null ? publishCursor : upstream.cursor;
+        }
+
+        @Override
+        public void run() {
+            int idleCount = 0;
+            while (true) {
+                long available = upstreamCursor();
+                long next = cursor + 1;
+
+                if (next > available) {
+                    if (!running && (upstream == null || !upstream.thread.isAlive()) && cursor >= upstreamCursor()) {
+                        return;
+                    }
+                    idleCount = idle(idleCount);
+                    continue;
+                }
+
+                // Process everything the upstream stage has released in one batch. A failure is recorded on its
+                // order and the stage moves on, since a dead stage would stall every stage and publisher behind it.
+                for (long sequence = next; sequence <= available; sequence++) {
+                    OrderEvent event = ring[(int) (sequence & mask)];
+                    try {
+                        process(event);
+                    } catch (RuntimeException e) {
+                        event.failure = e;
+                        if (event.state != OrderState.EXECUTED) {
+                            event.state = OrderState.FAILED;
+                        }
+                        errorCount.increment();
+                    }
+                }
+                try {
+                    endOfBatch();
+                } catch (RuntimeException e) {
+                    errorCount.increment();
+                }
+                cursor = available;
+                idleCount = 0;
+            }
+        }
+
+        abstract void process(OrderEvent event);
+
+        void endOfBatch() {
+        }
+    }
+
+    private final OrderEvent[] ring;
+    private final int mask;
+    private final Map<String, User> users;
+    private final Map<String, Stock> stockMap;
+    private final Journal journal;
+    private final Stage[] stages;
+    private volatile MarginMonitor marginMonitor;
+
+    private volatile long publishCursor = -1;
+    private volatile boolean running;
+    private volatile long executedCount;
+    private volatile long rejectedCount;
+    private volatile long failedCount;
+    private final LongAdder errorCount = new LongAdder();
+
+    public OrderPipeline(int bufferSize, Map<String, User> users, Map<String, Stock> stockMap, Journal journal) {
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("Buffer size must be a power of two");
+        }
+
+        this.ring = new OrderEvent[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            ring[i] = new OrderEvent();
+        }
+        this.mask = bufferSize - 1;
+        this.users = users;
+        this.stockMap = stockMap;
+        this.journal = journal;
+
+        this.stages = new Stage[] {
+                new Stage("order-decode") {
+                    @Override
+                    void process(OrderEvent event) {
+                        decode(event);
+                    }
+                },
+                new Stage("order-risk") {
+                    @Override
+                    void process(OrderEvent event) {
+                        checkRisk(event);
+                    }
+                },
+                new Stage("order-execution") {
+                    @Override
+                    void process(OrderEvent event) {
+                        execute(event);
+                    }
+                },
+                new Stage("order-journal") {
+                    @Override
+                    void process(OrderEvent event) {
+                        if (event.transaction != null) {
+                            journal.append(event.transaction);
+                        }
+                    }
+
+                    @Override
+                    void endOfBatch() {
+                        journal.flush();
+                    }
+                }
+        };
+        for (int i = 1; i < stages.length; i++) {
+            stages[i].upstream = stages[i - 1];
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Stage stage : stages) {
+            stage.thread = new Thread(stage, stage.name);
+            stage.thread.setDaemon(true);
+            stage.thread.start();
+        }
+    }
+
+    public synchronized void publish(String userId, String symbol, Side side, int quantity, double commission) {
+        if (!running) {
+            throw new IllegalStateException("Pipeline is not running");
+        }
+
+        long next = publishCursor + 1;
+        Stage last = stages[stages.length - 1];
+
+        // Back-pressure: wait until the journal stage has released the slot we are about to reuse
+        int idleCount = 0;
+        while (next - ring.length > last.cursor) {
+            idleCount = idle(idleCount);
+        }
+
+        ring[(int) (next & mask)].reset(userId, symbol, side, quantity, commission);
+        publishCursor = next;
+    }
+
+    public void shutdown() throws InterruptedException {
+        synchronized (this) {
+            running = false;
+        }
+        for (Stage stage : stages) {
+            if (stage.thread != null) {
+                stage.thread.join();
+            }
+        }
+    }
+
+    private void decode(OrderEvent event) {
+        if (event.userId == null || event.symbol == null || event.side == null || event.quantity <= 0) {
+            event.state = OrderState.REJECTED;
+            return;
+        }
+
+        event.symbol = event.symbol.toUpperCase();
+        event.user = users.get(event.userId);
+        event.stock = stockMap.get(event.symbol);
+        event.state = (event.user == null || event.stock == null) ? OrderState.REJECTED : OrderState.DECODED;
+    }
+
+    private void checkRisk(OrderEvent event) {
+        if (event.state != OrderState.DECODED) {
+            return;
+        }
+
+        User user = event.user;
+        if (!user.isActive()) {
+            event.state = OrderState.REJECTED;
+            return;
+        }
+
+        if (event.side == Side.BUY) {
+            Portfolio portfolio = user.getPortfolio();
+            double tradeAmount = event.stock.getCurrentPrice() * event.quantity;
+            double portfolioValue;
+            boolean lossLimitReached;
+            synchronized (portfolio) {
+                portfolioValue = portfolio.getTotalValue(stockMap);
+                lossLimitReached = user.hasReachedDailyLossLimit(stockMap);
+            }
+            if (lossLimitReached || !user.canPlaceTrade(tradeAmount, portfolioValue)) {
+                event.state = OrderState.REJECTED;
+                return;
+            }
+        }
+
+        event.state = OrderState.APPROVED;
+    }
+
+    private void execute(OrderEvent event) {
+        if (event.state != OrderState.APPROVED) {
+            if (event.failure == null) {
+                rejectedCount++;
+            }
+            return;
+        }
+
+        Portfolio portfolio = event.user.getPortfolio();
+        boolean useMargin = event.user.getPreferences().isAllowMarginTrading();
+        synchronized (portfolio) {
+            boolean success;
+            if (event.side == Side.SELL) {
+                success = portfolio.sellStock(event.stock, event.quantity, event.commission);
+            } else if (useMargin) {
+                success = portfolio.buyStockOnMargin(event.stock, event.quantity, event.commission, stockMap);
+            } else {
+                success = portfolio.buyStock(event.stock, event.quantity, event.commission);
+            }
+
+            if (success) {
+                event.transaction = portfolio.getLastTransaction();
+                event.state = OrderState.EXECUTED;
+                executedCount++;
+            } else {
+                event.state = OrderState.FAILED;
+                failedCount++;
+            }
+        }
+
+        MarginMonitor monitor = marginMonitor;
+        if (monitor != null && event.state == OrderState.EXECUTED) {
+            monitor.refresh(portfolio);
+        }
+    }
+
+    private static int idle(int idleCount) {
+        if (idleCount < 100) {
+            Thread.onSpinWait();
+        } else if (idleCount < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return idleCount + 1;
+    }
+
+    public void setMarginMonitor(MarginMonitor marginMonitor) { this.marginMonitor = marginMonitor; }
+
+    public boolean isRunning() { return running; }
+    public int getBufferSize() { return ring.length; }
+    public long getPublishedCount() { return publishCursor + 1; }
+    public long getJournaledCount() { return stages[stages.length - 1].cursor + 1; }
+    public long getExecutedCount() { return executedCount; }
+    public long getRejectedCount() { return rejectedCount; }
+    public long getFailedCount() { return failedCount; }
+    // Exceptions thrown by any stage, including journal flushes
+    public long getErrorCount() { return errorCount.sum(); }
+}
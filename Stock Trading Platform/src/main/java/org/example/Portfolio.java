@@ -1,18 +1,31 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 public class Portfolio {
+    public static final double INITIAL_MARGIN_RATE = 0.5;
+    public static final double MAINTENANCE_MARGIN_RATE = 0.25;
+
     private String userId;
     private Map<String, StockHolding> holdings;
     private double cashBalance;
+    private double borrowedBalance;
     private double initialInvestment;
+    private double previousCloseValue;
+    private double lastDailyProfitLoss;
+    private LocalDate lastCloseDate;
     private List<Transaction> transactionHistory;
     private Map<String, Double> averageCosts;
 
     public Portfolio(String userId, double initialCash) {
         this.userId = userId;
         this.cashBalance = initialCash;
+        this.borrowedBalance = 0.0;
         this.initialInvestment = initialCash;
+        this.previousCloseValue = initialCash;
+        this.lastDailyProfitLoss = 0.0;
         this.holdings = new HashMap<>();
         this.transactionHistory = new ArrayList<>();
         this.averageCosts = new HashMap<>();
@@ -74,7 +87,32 @@ public class Portfolio {
         }
 
         cashBalance -= totalCost;
+        recordBuy(stock, quantity, commission);
+        return true;
+    }
+
+    public boolean buyStockOnMargin(Stock stock, int quantity, double commission, Map<String, Stock> stockMap) {
+        double totalCost = (stock.getCurrentPrice() * quantity) + commission;
+
+        if (totalCost <= cashBalance) {
+            return buyStock(stock, quantity, commission);
+        }
+
+        double longValue = getLongMarketValue(stockMap);
+        double equityAfter = longValue + cashBalance - borrowedBalance - commission;
+        double longValueAfter = longValue + stock.getCurrentPrice() * quantity;
+
+        if (equityAfter < longValueAfter * INITIAL_MARGIN_RATE) {
+            return false;
+        }
+
+        borrowedBalance += totalCost - cashBalance;
+        cashBalance = 0;
+        recordBuy(stock, quantity, commission);
+        return true;
+    }
 
+    private void recordBuy(Stock stock, int quantity, double commission) {
         String symbol = stock.getSymbol();
         if (holdings.containsKey(symbol)) {
             holdings.get(symbol).addShares(quantity, stock.getCurrentPrice());
@@ -85,8 +123,6 @@ public class Portfolio {
         Transaction transaction = new Transaction(userId, symbol, Transaction.TransactionType.BUY,
                 quantity, stock.getCurrentPrice(), commission);
         transactionHistory.add(transaction);
-
-        return true;
     }
 
     public boolean sellStock(Stock stock, int quantity, double commission) {
@@ -99,7 +135,10 @@ public class Portfolio {
         StockHolding holding = holdings.get(symbol);
         double totalRevenue = (stock.getCurrentPrice() * quantity) - commission;
 
-        cashBalance += totalRevenue;
+        // Sale proceeds pay down any margin loan before they are credited as cash
+        double repayment = Math.min(borrowedBalance, Math.max(0, totalRevenue));
+        borrowedBalance -= repayment;
+        cashBalance += totalRevenue - repayment;
 
         holding.removeShares(quantity);
         if (holding.getQuantity() == 0) {
@@ -123,7 +162,43 @@ public class Portfolio {
             }
         }
 
-        return cashBalance + totalStockValue;
+        return cashBalance + totalStockValue - borrowedBalance;
+    }
+
+    public double getLongMarketValue(Map<String, Stock> stockMap) {
+        double longValue = 0;
+
+        for (StockHolding holding : holdings.values()) {
+            Stock stock = stockMap.get(holding.getSymbol());
+            if (stock != null) {
+                longValue += holding.getCurrentValue(stock.getCurrentPrice());
+            }
+        }
+
+        return longValue;
+    }
+
+    public double getMarginBuyingPower(Map<String, Stock> stockMap) {
+        double longValue = getLongMarketValue(stockMap);
+        double equity = longValue + cashBalance - borrowedBalance;
+        return Math.max(0, equity / INITIAL_MARGIN_RATE - longValue);
+    }
+
+    public double getMaintenanceRequirement(Map<String, Stock> stockMap) {
+        return getLongMarketValue(stockMap) * MAINTENANCE_MARGIN_RATE;
+    }
+
+    public boolean isMarginCall(Map<String, Stock> stockMap) {
+        return borrowedBalance > 0 && getTotalValue(stockMap) < getMaintenanceRequirement(stockMap);
+    }
+
+    public double repayMargin(double amount) {
+        double repayment = Math.min(amount, Math.min(borrowedBalance, cashBalance));
+        if (repayment > 0) {
+            borrowedBalance -= repayment;
+            cashBalance -= repayment;
+        }
+        return repayment;
     }
 
     public double getUnrealizedProfitLoss(Map<String, Stock> stockMap) {
@@ -141,23 +216,20 @@ public class Portfolio {
 
     public double getRealizedProfitLoss() {
         double realizedPL = 0;
-        Map<String, List<Transaction>> buysBySymbol = new HashMap<>();
+        Map<String, DoubleSummaryStatistics> buyPricesBySymbol = new HashMap<>();
 
         for (Transaction tx : transactionHistory) {
             if (tx.getType() == Transaction.TransactionType.BUY) {
-                buysBySymbol.computeIfAbsent(tx.getStockSymbol(), k -> new ArrayList<>()).add(tx);
+                buyPricesBySymbol.computeIfAbsent(tx.getStockSymbol(), k -> new DoubleSummaryStatistics())
+                        .accept(tx.getPricePerShare());
             }
         }
 
         for (Transaction tx : transactionHistory) {
             if (tx.getType() == Transaction.TransactionType.SELL) {
-                List<Transaction> buys = buysBySymbol.get(tx.getStockSymbol());
-                if (buys != null && !buys.isEmpty()) {
-                    double avgBuyPrice = buys.stream()
-                            .mapToDouble(Transaction::getPricePerShare)
-                            .average()
-                            .orElse(0.0);
-                    realizedPL += tx.calculateProfitLoss(avgBuyPrice);
+                DoubleSummaryStatistics buyPrices = buyPricesBySymbol.get(tx.getStockSymbol());
+                if (buyPrices != null) {
+                    realizedPL += tx.calculateProfitLoss(buyPrices.getAverage());
                 }
             }
         }
@@ -175,6 +247,31 @@ public class Portfolio {
         return holdings.size();
     }
 
+    public double getDailyProfitLoss(Map<String, Stock> stockMap) {
+        return getTotalValue(stockMap) - previousCloseValue;
+    }
+
+    // The P&L that closing the trading date at this value would record, without recording it
+    public double previewDailyClose(LocalDate tradingDate, double closingValue) {
+        return isClosed(tradingDate) ? lastDailyProfitLoss : closingValue - previousCloseValue;
+    }
+
+    // Once per trading date: closing a date that is already closed, or an earlier one, changes nothing and returns
+    // the P&L recorded at that close
+    public double recordDailyClose(LocalDate tradingDate, double closingValue) {
+        if (isClosed(tradingDate)) {
+            return lastDailyProfitLoss;
+        }
+        lastDailyProfitLoss = closingValue - previousCloseValue;
+        previousCloseValue = closingValue;
+        lastCloseDate = tradingDate;
+        return lastDailyProfitLoss;
+    }
+
+    private boolean isClosed(LocalDate tradingDate) {
+        return lastCloseDate != null && !tradingDate.isAfter(lastCloseDate);
+    }
+
     public String getLargestHolding(Map<String, Stock> stockMap) {
         if (holdings.isEmpty()) return "None";
 
@@ -199,12 +296,14 @@ public class Portfolio {
         if (amount > 0) {
             cashBalance += amount;
             initialInvestment += amount; // Track additional investments
+            previousCloseValue += amount; // Deposits are not daily profit
         }
     }
 
     public boolean withdrawCash(double amount) {
         if (amount <= cashBalance) {
             cashBalance -= amount;
+            previousCloseValue -= amount;
             return true;
         }
         return false;
@@ -212,66 +311,37 @@ public class Portfolio {
 
 
     public String getPortfolioSummary(Map<String, Stock> stockMap) {
-        StringBuilder summary = new StringBuilder();
-        summary.append("\n").append("=".repeat(60)).append("\n");
-        summary.append("PORTFOLIO SUMMARY - User: ").append(userId).append("\n");
-        summary.append("=".repeat(60)).append("\n");
-
-        double totalValue = getTotalValue(stockMap);
-        double stockValue = totalValue - cashBalance;
-
-        summary.append(String.format("Cash Balance: $%.2f\n", cashBalance));
-        summary.append(String.format("Stock Holdings Value: $%.2f\n", stockValue));
-        summary.append(String.format("Total Portfolio Value: $%.2f\n", totalValue));
-        summary.append(String.format("Initial Investment: $%.2f\n", initialInvestment));
-
-        double totalReturn = totalValue - initialInvestment;
-        double returnPercent = getTotalReturnPercentage(stockMap);
-
-        summary.append(String.format("Total Return: $%.2f (%.2f%%)\n", totalReturn, returnPercent));
-        summary.append(String.format("Unrealized P&L: $%.2f\n", getUnrealizedProfitLoss(stockMap)));
-        summary.append(String.format("Realized P&L: $%.2f\n", getRealizedProfitLoss()));
-
-        summary.append("\nPORTFOLIO STATISTICS:\n");
-        summary.append("-".repeat(30)).append("\n");
-        summary.append(String.format("Number of Holdings: %d\n", getPortfolioDiversity()));
-        summary.append(String.format("Largest Position: %s\n", getLargestHolding(stockMap)));
-        summary.append(String.format("Total Transactions: %d\n", transactionHistory.size()));
-
-        if (!holdings.isEmpty()) {
-            summary.append("\nCURRENT HOLDINGS:\n");
-            summary.append("-".repeat(80)).append("\n");
-            summary.append(String.format("%-8s %-12s %-12s %-12s %-12s %-12s\n",
-                    "Symbol", "Quantity", "Avg Cost", "Current", "Value", "P&L"));
-            summary.append("-".repeat(80)).append("\n");
-
-            for (StockHolding holding : holdings.values()) {
-                Stock stock = stockMap.get(holding.getSymbol());
-                if (stock != null) {
-                    double currentValue = holding.getCurrentValue(stock.getCurrentPrice());
-                    double pl = holding.getUnrealizedProfitLoss(stock.getCurrentPrice());
-
-                    summary.append(String.format("%-8s %-12d $%-11.2f $%-11.2f $%-11.2f $%-11.2f\n",
-                            holding.getSymbol(),
-                            holding.getQuantity(),
-                            holding.getAverageCost(),
-                            stock.getCurrentPrice(),
-                            currentValue,
-                            pl));
-                }
-            }
+        StringBuilder summary = new StringBuilder(1024);
+        try {
+            new ReportWriter(summary, ReportWriter.Format.TEXT).writePortfolio(this, stockMap);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        summary.append("=".repeat(60));
         return summary.toString();
     }
 
     public String getUserId() { return userId; }
     public double getCashBalance() { return cashBalance; }
+    public double getBorrowedBalance() { return borrowedBalance; }
+    public double getPreviousCloseValue() { return previousCloseValue; }
+    public double getLastDailyProfitLoss() { return lastDailyProfitLoss; }
+    public LocalDate getLastCloseDate() { return lastCloseDate; }
     public double getInitialInvestment() { return initialInvestment; }
     public Map<String, StockHolding> getHoldings() { return new HashMap<>(holdings); }
+
+    public int getHoldingQuantity(String symbol) {
+        StockHolding holding = holdings.get(symbol);
+        return holding == null ? 0 : holding.getQuantity();
+    }
     public List<Transaction> getTransactionHistory() { return new ArrayList<>(transactionHistory); }
 
+    Collection<StockHolding> holdingsView() { return Collections.unmodifiableCollection(holdings.values()); }
+    List<Transaction> transactionHistoryView() { return Collections.unmodifiableList(transactionHistory); }
+
+    public Transaction getLastTransaction() {
+        return transactionHistory.isEmpty() ? null : transactionHistory.get(transactionHistory.size() - 1);
+    }
+
     public List<Transaction> getRecentTransactions() {
         List<Transaction> recent = new ArrayList<>(transactionHistory);
         recent.sort((t1, t2) -> t2.getTimestamp().compareTo(t1.getTimestamp())); // Sort by newest first
@@ -0,0 +1,157 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+public class RebalancePlanner {
+    // Called concurrently from planner threads when planning in bulk
+    public interface OrderSink {
+        void accept(User user, String symbol, OrderPipeline.Side side, int quantity);
+    }
+
+    private static class Scratch {
+        private final int[] currentShares;
+        private final int[] targetShares;
+
+        private Scratch(int size) {
+            this.currentShares = new int[size];
+            this.targetShares = new int[size];
+        }
+    }
+
+    private final String[] symbols;
+    private final double[] modelWeights;
+    private final double minTradeValue;
+    private final ThreadLocal<Scratch> scratch;
+
+    public RebalancePlanner(Map<String, Double> modelPortfolio, double minTradeValue) {
+        if (modelPortfolio.isEmpty()) {
+            throw new IllegalArgumentException("Model portfolio must contain at least one symbol");
+        }
+
+        int size = modelPortfolio.size();
+        this.symbols = new String[size];
+        this.modelWeights = new double[size];
+
+        double totalWeight = 0;
+        int i = 0;
+        for (Map.Entry<String, Double> entry : modelPortfolio.entrySet()) {
+            if (entry.getValue() <= 0) {
+                throw new IllegalArgumentException("Model weight must be positive: " + entry.getKey());
+            }
+            symbols[i] = entry.getKey().toUpperCase();
+            modelWeights[i] = entry.getValue();
+            totalWeight += entry.getValue();
+            i++;
+        }
+        for (int k = 0; k < size; k++) {
+            modelWeights[k] /= totalWeight;
+        }
+
+        this.minTradeValue = minTradeValue;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(size));
+    }
+
+    public long planAll(List<User> users, Map<String, Stock> stockMap, double commission, OrderSink sink) {
+        double[] prices = resolvePrices(stockMap);
+        AtomicLong orderCount = new AtomicLong();
+
+        IntStream.range(0, users.size()).parallel().forEach(i -> {
+            int orders = plan(users.get(i), stockMap, prices, commission, sink);
+            if (orders > 0) {
+                orderCount.addAndGet(orders);
+            }
+        });
+
+        return orderCount.get();
+    }
+
+    public int plan(User user, Map<String, Stock> stockMap, double commission, OrderSink sink) {
+        return plan(user, stockMap, resolvePrices(stockMap), commission, sink);
+    }
+
+    private int plan(User user, Map<String, Stock> stockMap, double[] prices, double commission, OrderSink sink) {
+        if (!user.isActive()) {
+            return 0;
+        }
+
+        Scratch buffers = scratch.get();
+        int[] current = buffers.currentShares;
+        int[] target = buffers.targetShares;
+
+        double maxWeight = Math.min(user.getRiskProfile().getMaxPositionPercent(),
+                user.getPreferences().getMaxPositionSize());
+        double equityAllocation = user.getRiskProfile().getEquityAllocation();
+
+        Portfolio portfolio = user.getPortfolio();
+        double totalValue;
+        double cash;
+        double borrowed;
+        synchronized (portfolio) {
+            totalValue = portfolio.getTotalValue(stockMap);
+            cash = portfolio.getCashBalance();
+            borrowed = portfolio.getBorrowedBalance();
+            for (int k = 0; k < symbols.length; k++) {
+                current[k] = portfolio.getHoldingQuantity(symbols[k]);
+            }
+        }
+
+        if (totalValue <= 0) {
+            return 0;
+        }
+
+        for (int k = 0; k < symbols.length; k++) {
+            if (prices[k] <= 0) {
+                target[k] = current[k];
+                continue;
+            }
+            double weight = Math.min(modelWeights[k] * equityAllocation, maxWeight);
+            target[k] = (int) Math.floor(weight * totalValue / prices[k]);
+        }
+
+        int orders = 0;
+
+        // Sells first so their proceeds can fund the buys. As in Portfolio.sellStock, proceeds repay any margin loan
+        // before they count as cash.
+        for (int k = 0; k < symbols.length; k++) {
+            int quantity = current[k] - target[k];
+            if (quantity > 0 && quantity * prices[k] >= minTradeValue) {
+                sink.accept(user, symbols[k], OrderPipeline.Side.SELL, quantity);
+                double proceeds = quantity * prices[k] - commission;
+                double repayment = Math.min(borrowed, Math.max(0, proceeds));
+                borrowed -= repayment;
+                cash += proceeds - repayment;
+                orders++;
+            }
+        }
+
+        for (int k = 0; k < symbols.length; k++) {
+            int quantity = target[k] - current[k];
+            if (quantity <= 0) {
+                continue;
+            }
+            int affordable = (int) Math.floor((cash - commission) / prices[k]);
+            quantity = Math.min(quantity, affordable);
+            if (quantity > 0 && quantity * prices[k] >= minTradeValue) {
+                sink.accept(user, symbols[k], OrderPipeline.Side.BUY, quantity);
+                cash -= quantity * prices[k] + commission;
+                orders++;
+            }
+        }
+
+        return orders;
+    }
+
+    private double[] resolvePrices(Map<String, Stock> stockMap) {
+        double[] prices = new double[symbols.length];
+        for (int k = 0; k < symbols.length; k++) {
+            Stock stock = stockMap.get(symbols[k]);
+            prices[k] = stock == null ? 0.0 : stock.getCurrentPrice();
+        }
+        return prices;
+    }
+
+    public String[] getSymbols() { return symbols.clone(); }
+    public double getModelWeight(int index) { return modelWeights[index]; }
+    public double getMinTradeValue() { return minTradeValue; }
+}
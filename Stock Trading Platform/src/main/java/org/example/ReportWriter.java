@@ -0,0 +1,829 @@
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public class ReportWriter {
+    public enum Format {
+        TEXT, CSV, JSON
+    }
+
+    public enum Record {
+        PORTFOLIO, HOLDING, PROFILE, TRANSACTION
+    }
+
+    // Writes UTF-8 into a ByteBuffer, draining it to the channel when full (or overflowing if there is none)
+    public static class ByteBufferAppendable implements Appendable {
+        private final ByteBuffer buffer;
+        private final WritableByteChannel channel;
+
+        public ByteBufferAppendable(ByteBuffer buffer, WritableByteChannel channel) {
+            this.buffer = buffer;
+            this.channel = channel;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            CharSequence value = csq == null ? "null" : csq;
+            return append(value, 0, value.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            if (csq == null) {
+                return append("null", start, end);
+            }
+            for (int i = start; i < end; i++) {
+                char c = csq.charAt(i);
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(csq.charAt(i + 1))) {
+                    writeCodePoint(Character.toCodePoint(c, csq.charAt(++i)));
+                } else {
+                    writeCodePoint(c);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            writeCodePoint(c);
+            return this;
+        }
+
+        public void write(char[] chars, int offset, int length) throws IOException {
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                char c = chars[i];
+                if (c < 0x80 && buffer.hasRemaining()) {
+                    buffer.put((byte) c);
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                    writeCodePoint(Character.toCodePoint(c, chars[++i]));
+                } else {
+                    writeCodePoint(c);
+                }
+            }
+        }
+
+        private void writeCodePoint(int codePoint) throws IOException {
+            ensureRemaining(4);
+            if (codePoint < 0x80) {
+                buffer.put((byte) codePoint);
+            } else if (codePoint < 0x800) {
+                buffer.put((byte) (0xC0 | (codePoint >> 6)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (codePoint < 0x10000) {
+                buffer.put((byte) (0xE0 | (codePoint >> 12)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            }
+        }
+
+        private void ensureRemaining(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            if (channel == null) {
+                throw new BufferOverflowException();
+            }
+            flush();
+        }
+
+        public void flush() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L};
+    // Bound on the scaled value, well inside the range where a double still resolves fractions of a unit
+    private static final double MAX_FAST_FORMAT = 1e13;
+
+    private final Appendable out;
+    private final Format format;
+    private final char[] digits;
+    private final char[] buffer;
+    private int size;
+
+    public ReportWriter(Appendable out, Format format) {
+        this.out = out;
+        this.format = format;
+        this.digits = new char[32];
+        this.buffer = new char[1024];
+    }
+
+    public Format getFormat() { return format; }
+
+    public ReportWriter writeHeader(Record record) throws IOException {
+        if (format != Format.CSV) {
+            return this;
+        }
+        switch (record) {
+            case PORTFOLIO:
+                put("user_id,cash_balance,margin_loan,stock_value,total_value,initial_investment,"
+                        + "total_return,return_pct,unrealized_pl,realized_pl,holdings,largest_position,transactions\n");
+                break;
+            case HOLDING:
+                put("user_id,symbol,quantity,average_cost,current_price,value,unrealized_pl\n");
+                break;
+            case PROFILE:
+                put("user_id,first_name,last_name,username,email,phone,registration_date,last_login,"
+                        + "status,risk_profile,activity_level,success_rate,notifications,max_daily_loss,"
+                        + "max_position_pct,margin_trading,after_hours_trading,preferred_order_type,watchlist\n");
+                break;
+            case TRANSACTION:
+                put("transaction_id,user_id,type,symbol,timestamp,quantity,price_per_share,subtotal,"
+                        + "commission,total_amount,cash_flow,notes\n");
+                break;
+        }
+        drain();
+        return this;
+    }
+
+    public ReportWriter writePortfolio(Portfolio portfolio, Map<String, Stock> stockMap) throws IOException {
+        double cashBalance = portfolio.getCashBalance();
+        double borrowedBalance = portfolio.getBorrowedBalance();
+        double initialInvestment = portfolio.getInitialInvestment();
+
+        // One pass over the holdings, in the same order the Portfolio getters sum them
+        double holdingsValue = 0;
+        double unrealized = 0;
+        String largest = portfolio.holdingsView().isEmpty() ? "None" : "";
+        double largestValue = 0;
+        for (Portfolio.StockHolding holding : portfolio.holdingsView()) {
+            Stock stock = stockMap.get(holding.getSymbol());
+            if (stock != null) {
+                double value = holding.getCurrentValue(stock.getCurrentPrice());
+                holdingsValue += value;
+                unrealized += holding.getUnrealizedProfitLoss(stock.getCurrentPrice());
+                if (value > largestValue) {
+                    largestValue = value;
+                    largest = holding.getSymbol();
+                }
+            }
+        }
+
+        double totalValue = cashBalance + holdingsValue - borrowedBalance;
+        double stockValue = totalValue - cashBalance + borrowedBalance;
+        double totalReturn = totalValue - initialInvestment;
+        double returnPercent = initialInvestment == 0 ? 0.0 : (totalReturn / initialInvestment) * 100;
+        double realized = portfolio.getRealizedProfitLoss();
+        int transactionCount = portfolio.transactionHistoryView().size();
+
+        switch (format) {
+            case TEXT:
+                put('\n');
+                repeat('=', 60).put('\n');
+                put("PORTFOLIO SUMMARY - User: ").put(portfolio.getUserId()).put('\n');
+                repeat('=', 60).put('\n');
+                money("Cash Balance: $", cashBalance);
+                if (borrowedBalance > 0) {
+                    money("Margin Loan: $", borrowedBalance);
+                }
+                money("Stock Holdings Value: $", stockValue);
+                money("Total Portfolio Value: $", totalValue);
+                money("Initial Investment: $", initialInvestment);
+                put("Total Return: $");
+                fixed(totalReturn, 2);
+                put(" (");
+                fixed(returnPercent, 2);
+                put("%)\n");
+                money("Unrealized P&L: $", unrealized);
+                money("Realized P&L: $", realized);
+
+                put("\nPORTFOLIO STATISTICS:\n");
+                repeat('-', 30).put('\n');
+                put("Number of Holdings: ");
+                integer(portfolio.getPortfolioDiversity());
+                put("\nLargest Position: ").put(largest);
+                put("\nTotal Transactions: ");
+                integer(transactionCount);
+                put('\n');
+
+                if (!portfolio.holdingsView().isEmpty()) {
+                    put("\nCURRENT HOLDINGS:\n");
+                    writeHoldings(portfolio, stockMap);
+                }
+
+                repeat('=', 60);
+                break;
+            case CSV:
+                csv(portfolio.getUserId()).put(',');
+                fixed(cashBalance, 2);
+                put(',');
+                fixed(borrowedBalance, 2);
+                put(',');
+                fixed(stockValue, 2);
+                put(',');
+                fixed(totalValue, 2);
+                put(',');
+                fixed(initialInvestment, 2);
+                put(',');
+                fixed(totalReturn, 2);
+                put(',');
+                fixed(returnPercent, 2);
+                put(',');
+                fixed(unrealized, 2);
+                put(',');
+                fixed(realized, 2);
+                put(',');
+                integer(portfolio.getPortfolioDiversity());
+                put(',');
+                csv(largest).put(',');
+                integer(transactionCount);
+                put('\n');
+                break;
+            case JSON:
+                put("{\"userId\":");
+                json(portfolio.getUserId());
+                jsonNumber("cashBalance", cashBalance);
+                jsonNumber("marginLoan", borrowedBalance);
+                jsonNumber("stockValue", stockValue);
+                jsonNumber("totalValue", totalValue);
+                jsonNumber("initialInvestment", initialInvestment);
+                jsonNumber("totalReturn", totalReturn);
+                jsonNumber("returnPct", returnPercent);
+                jsonNumber("unrealizedPL", unrealized);
+                jsonNumber("realizedPL", realized);
+                put(",\"largestPosition\":");
+                json(largest);
+                put(",\"transactions\":");
+                integer(transactionCount);
+                put(",\"holdings\":[");
+                boolean first = true;
+                for (Portfolio.StockHolding holding : portfolio.holdingsView()) {
+                    Stock stock = stockMap.get(holding.getSymbol());
+                    if (stock == null) {
+                        continue;
+                    }
+                    if (!first) {
+                        put(',');
+                    }
+                    first = false;
+                    jsonHolding(holding, stock.getCurrentPrice());
+                }
+                put("]}\n");
+                break;
+        }
+        drain();
+        return this;
+    }
+
+    public ReportWriter writeHoldings(Portfolio portfolio, Map<String, Stock> stockMap) throws IOException {
+        Collection<Portfolio.StockHolding> holdings = portfolio.holdingsView();
+
+        if (format == Format.TEXT) {
+            repeat('-', 80).put('\n');
+            padRight("Symbol", 8).put(' ');
+            padRight("Quantity", 12).put(' ');
+            padRight("Avg Cost", 12).put(' ');
+            padRight("Current", 12).put(' ');
+            padRight("Value", 12).put(' ');
+            padRight("P&L", 12).put('\n');
+            repeat('-', 80).put('\n');
+        }
+
+        for (Portfolio.StockHolding holding : holdings) {
+            Stock stock = stockMap.get(holding.getSymbol());
+            if (stock == null) {
+                continue;
+            }
+            double price = stock.getCurrentPrice();
+            double currentValue = holding.getCurrentValue(price);
+            double pl = holding.getUnrealizedProfitLoss(price);
+
+            switch (format) {
+                case TEXT:
+                    padRight(holding.getSymbol(), 8).put(' ');
+                    integer(holding.getQuantity(), 12);
+                    put(" $");
+                    fixed(holding.getAverageCost(), 2, 11);
+                    put(" $");
+                    fixed(price, 2, 11);
+                    put(" $");
+                    fixed(currentValue, 2, 11);
+                    put(" $");
+                    fixed(pl, 2, 11);
+                    put('\n');
+                    break;
+                case CSV:
+                    csv(portfolio.getUserId()).put(',');
+                    csv(holding.getSymbol()).put(',');
+                    integer(holding.getQuantity());
+                    put(',');
+                    fixed(holding.getAverageCost(), 4);
+                    put(',');
+                    fixed(price, 2);
+                    put(',');
+                    fixed(currentValue, 2);
+                    put(',');
+                    fixed(pl, 2);
+                    put('\n');
+                    break;
+                case JSON:
+                    jsonHolding(holding, price);
+                    put('\n');
+                    break;
+            }
+        }
+        drain();
+        return this;
+    }
+
+    public ReportWriter writeProfile(User user) throws IOException {
+        User.TradingPreferences preferences = user.getPreferences();
+        String phone = user.getPhoneNumber();
+        String activityLevel = user.getTradingActivityLevel();
+        double successRate = user.getSuccessRate();
+        List<String> watchlist = user.getWatchlist();
+
+        switch (format) {
+            case TEXT:
+                put('\n');
+                repeat('=', 50).put('\n');
+                put("USER PROFILE\n");
+                repeat('=', 50).put('\n');
+                put("User ID: ").put(user.getUserId()).put('\n');
+                put("Name: ").put(user.getFirstName()).put(' ').put(user.getLastName()).put('\n');
+                put("Username: ").put(user.getUsername()).put('\n');
+                put("Email: ").put(user.getEmail()).put('\n');
+                put("Phone: ").put(phone.isEmpty() ? "Not provided" : phone).put('\n');
+                put("Registration Date: ");
+                date(user.getRegistrationDate());
+                put("\nLast Login: ");
+                dateTime(user.getLastLoginDate());
+                put("\nStatus: ").put(String.valueOf(user.getStatus()));
+                put("\nRisk Profile: ").put(String.valueOf(user.getRiskProfile()));
+                put("\nActivity Level: ").put(activityLevel);
+                put("\nSuccess Rate: ");
+                fixed(successRate, 1);
+                put("%\n");
+
+                put("\nTRADING PREFERENCES:\n");
+                repeat('-', 30).put('\n');
+                put("Notifications: ").put(preferences.isEnableNotifications() ? "Enabled" : "Disabled");
+                put('\n');
+                money("Max Daily Loss: $", preferences.getMaxDailyLoss());
+                put("Max Position Size: ");
+                fixed(preferences.getMaxPositionSize() * 100, 1);
+                put("%\n");
+                put("Margin Trading: ")
+                        .put(preferences.isAllowMarginTrading() ? "Allowed" : "Not Allowed").put('\n');
+                put("After Hours Trading: ")
+                        .put(preferences.isAllowAfterHoursTrading() ? "Allowed" : "Not Allowed").put('\n');
+                put("Preferred Order Type: ").put(preferences.getPreferredOrderType()).put('\n');
+
+                put("\nWATCHLIST:\n");
+                repeat('-', 20).put('\n');
+                if (watchlist.isEmpty()) {
+                    put("No stocks in watchlist\n");
+                } else {
+                    for (String symbol : watchlist) {
+                        put("- ").put(symbol).put('\n');
+                    }
+                }
+
+                repeat('=', 50);
+                break;
+            case CSV:
+                csv(user.getUserId()).put(',');
+                csv(user.getFirstName()).put(',');
+                csv(user.getLastName()).put(',');
+                csv(user.getUsername()).put(',');
+                csv(user.getEmail()).put(',');
+                csv(phone).put(',');
+                date(user.getRegistrationDate());
+                put(',');
+                dateTime(user.getLastLoginDate());
+                put(',').put(String.valueOf(user.getStatus()));
+                put(',').put(String.valueOf(user.getRiskProfile())).put(',');
+                csv(activityLevel).put(',');
+                fixed(successRate, 1);
+                put(',').put(preferences.isEnableNotifications() ? "true" : "false").put(',');
+                fixed(preferences.getMaxDailyLoss(), 2);
+                put(',');
+                fixed(preferences.getMaxPositionSize() * 100, 1);
+                put(',').put(preferences.isAllowMarginTrading() ? "true" : "false");
+                put(',').put(preferences.isAllowAfterHoursTrading() ? "true" : "false").put(',');
+                csv(preferences.getPreferredOrderType()).put(',');
+                csv(String.join(";", watchlist)).put('\n');
+                break;
+            case JSON:
+                put("{\"userId\":");
+                json(user.getUserId());
+                put(",\"firstName\":");
+                json(user.getFirstName());
+                put(",\"lastName\":");
+                json(user.getLastName());
+                put(",\"username\":");
+                json(user.getUsername());
+                put(",\"email\":");
+                json(user.getEmail());
+                put(",\"phone\":");
+                json(phone);
+                put(",\"registrationDate\":\"");
+                date(user.getRegistrationDate());
+                put("\",\"lastLogin\":\"");
+                dateTime(user.getLastLoginDate());
+                put("\",\"status\":\"").put(String.valueOf(user.getStatus()));
+                put("\",\"riskProfile\":\"").put(String.valueOf(user.getRiskProfile()));
+                put("\",\"activityLevel\":");
+                json(activityLevel);
+                put(",\"successRate\":");
+                fixed(successRate, 1);
+                put(",\"preferences\":{\"notifications\":")
+                        .put(preferences.isEnableNotifications() ? "true" : "false");
+                jsonNumber("maxDailyLoss", preferences.getMaxDailyLoss());
+                put(",\"maxPositionPct\":");
+                fixed(preferences.getMaxPositionSize() * 100, 1);
+                put(",\"marginTrading\":").put(preferences.isAllowMarginTrading() ? "true" : "false");
+                put(",\"afterHoursTrading\":").put(preferences.isAllowAfterHoursTrading() ? "true" : "false");
+                put(",\"preferredOrderType\":");
+                json(preferences.getPreferredOrderType());
+                put("},\"watchlist\":[");
+                for (int i = 0; i < watchlist.size(); i++) {
+                    if (i > 0) {
+                        put(',');
+                    }
+                    json(watchlist.get(i));
+                }
+                put("]}\n");
+                break;
+        }
+        drain();
+        return this;
+    }
+
+    public ReportWriter writeTransaction(Transaction transaction) throws IOException {
+        Transaction.TransactionType type = transaction.getType();
+        boolean trade = type == Transaction.TransactionType.BUY || type == Transaction.TransactionType.SELL;
+        double subtotal = transaction.getQuantity() * transaction.getPricePerShare();
+        double cashFlow = transaction.getCashFlow();
+        String notes = transaction.getNotes();
+
+        switch (format) {
+            case TEXT:
+                repeat('=', 50).put('\n');
+                put("TRANSACTION DETAILS\n");
+                repeat('=', 50).put('\n');
+                put("Transaction ID: ").put(transaction.getTransactionId()).put('\n');
+                put("User ID: ").put(transaction.getUserId()).put('\n');
+                put("Type: ").put(type.toString()).put('\n');
+                put("Stock Symbol: ").put(transaction.getStockSymbol()).put('\n');
+                put("Timestamp: ");
+                dateTime(transaction.getTimestamp());
+                put('\n');
+
+                if (trade) {
+                    put("Quantity: ");
+                    integer(transaction.getQuantity());
+                    put(" shares\n");
+                    money("Price per Share: $", transaction.getPricePerShare());
+                    money("Subtotal: $", subtotal);
+                    money("Commission: $", transaction.getCommission());
+                }
+
+                money("Total Amount: $", transaction.getTotalAmount());
+                put("Cash Flow Impact: ").put(cashFlow >= 0 ? "+" : "").put('$');
+                fixed(cashFlow, 2);
+                put('\n');
+
+                if (!notes.isEmpty()) {
+                    put("Notes: ").put(notes).put('\n');
+                }
+
+                repeat('=', 50);
+                break;
+            case CSV:
+                csv(transaction.getTransactionId()).put(',');
+                csv(transaction.getUserId()).put(',');
+                put(type.toString()).put(',');
+                csv(transaction.getStockSymbol()).put(',');
+                dateTime(transaction.getTimestamp());
+                put(',');
+                integer(transaction.getQuantity());
+                put(',');
+                fixed(transaction.getPricePerShare(), 2);
+                put(',');
+                fixed(subtotal, 2);
+                put(',');
+                fixed(transaction.getCommission(), 2);
+                put(',');
+                fixed(transaction.getTotalAmount(), 2);
+                put(',');
+                fixed(cashFlow, 2);
+                put(',');
+                csv(notes).put('\n');
+                break;
+            case JSON:
+                put("{\"transactionId\":");
+                json(transaction.getTransactionId());
+                put(",\"userId\":");
+                json(transaction.getUserId());
+                put(",\"type\":\"").put(type.toString()).put("\",\"symbol\":");
+                json(transaction.getStockSymbol());
+                put(",\"timestamp\":\"");
+                dateTime(transaction.getTimestamp());
+                put("\",\"quantity\":");
+                integer(transaction.getQuantity());
+                jsonNumber("pricePerShare", transaction.getPricePerShare());
+                jsonNumber("subtotal", subtotal);
+                jsonNumber("commission", transaction.getCommission());
+                jsonNumber("totalAmount", transaction.getTotalAmount());
+                jsonNumber("cashFlow", cashFlow);
+                put(",\"notes\":");
+                json(notes);
+                put("}\n");
+                break;
+        }
+        drain();
+        return this;
+    }
+
+    private void jsonHolding(Portfolio.StockHolding holding, double price) throws IOException {
+        put("{\"symbol\":");
+        json(holding.getSymbol());
+        put(",\"quantity\":");
+        integer(holding.getQuantity());
+        put(",\"averageCost\":");
+        fixed(holding.getAverageCost(), 4);
+        jsonNumber("currentPrice", price);
+        jsonNumber("value", holding.getCurrentValue(price));
+        jsonNumber("unrealizedPL", holding.getUnrealizedProfitLoss(price));
+        put('}');
+    }
+
+    private void money(String label, double value) throws IOException {
+        put(label);
+        fixed(value, 2);
+        put('\n');
+    }
+
+    private void jsonNumber(String name, double value) throws IOException {
+        put(",\"").put(name).put("\":");
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            put("null");
+        } else {
+            fixed(value, 2);
+        }
+    }
+
+    // Output is staged in a char buffer and handed to the Appendable in bulk
+    private ReportWriter put(char c) throws IOException {
+        if (size == buffer.length) {
+            drain();
+        }
+        buffer[size++] = c;
+        return this;
+    }
+
+    private ReportWriter put(String value) throws IOException {
+        if (value == null) {
+            value = "null";
+        }
+        int offset = 0;
+        int length = value.length();
+        while (offset < length) {
+            if (size == buffer.length) {
+                drain();
+            }
+            int count = Math.min(length - offset, buffer.length - size);
+            value.getChars(offset, offset + count, buffer, size);
+            size += count;
+            offset += count;
+        }
+        return this;
+    }
+
+    private void drain() throws IOException {
+        if (size == 0) {
+            return;
+        }
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(buffer, 0, size);
+        } else if (out instanceof ByteBufferAppendable) {
+            ((ByteBufferAppendable) out).write(buffer, 0, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                out.append(buffer[i]);
+            }
+        }
+        size = 0;
+    }
+
+    private ReportWriter repeat(char c, int count) throws IOException {
+        while (count > 0) {
+            if (size == buffer.length) {
+                drain();
+            }
+            int run = Math.min(count, buffer.length - size);
+            Arrays.fill(buffer, size, size + run, c);
+            size += run;
+            count -= run;
+        }
+        return this;
+    }
+
+    private ReportWriter padRight(String value, int width) throws IOException {
+        put(value);
+        return repeat(' ', width - value.length());
+    }
+
+    private void integer(long value) throws IOException {
+        integer(value, 0);
+    }
+
+    private void integer(long value, int width) throws IOException {
+        int length = formatLong(value);
+        appendDigits(length);
+        repeat(' ', width - length);
+    }
+
+    private void fixed(double value, int decimals) throws IOException {
+        fixed(value, decimals, 0);
+    }
+
+    // Left-justified in the given width, like "%-<width>.<decimals>f"
+    private void fixed(double value, int decimals, int width) throws IOException {
+        int length = formatDouble(value, decimals);
+        if (length < 0) {
+            String slow = String.format("%." + decimals + "f", value);
+            put(slow);
+            repeat(' ', width - slow.length());
+        } else {
+            appendDigits(length);
+            repeat(' ', width - length);
+        }
+    }
+
+    private void appendDigits(int length) throws IOException {
+        if (buffer.length - size < length) {
+            drain();
+        }
+        System.arraycopy(digits, digits.length - length, buffer, size, length);
+        size += length;
+    }
+
+    // Digits are written right-aligned into the scratch array; returns the character count
+    private int formatLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            String text = Long.toString(value);
+            text.getChars(0, text.length(), digits, digits.length - text.length());
+            return text.length();
+        }
+
+        boolean negative = value < 0;
+        int position = writeDigits(negative ? -value : value, digits.length, 0);
+        if (negative) {
+            digits[--position] = '-';
+        }
+        return digits.length - position;
+    }
+
+    // Writes units right-aligned ending before position, with an implied decimal point; returns the new start
+    private int writeDigits(long units, int position, int decimals) {
+        for (int i = 0; i < decimals; i++) {
+            long quotient = units / 10;
+            digits[--position] = (char) ('0' + (units - quotient * 10));
+            units = quotient;
+        }
+        if (decimals > 0) {
+            digits[--position] = '.';
+        }
+        // Long division is noticeably slower than int division, so finish in int once the value fits
+        while (units > Integer.MAX_VALUE) {
+            long quotient = units / 10;
+            digits[--position] = (char) ('0' + (units - quotient * 10));
+            units = quotient;
+        }
+        int remaining = (int) units;
+        do {
+            int quotient = remaining / 10;
+            digits[--position] = (char) ('0' + (remaining - quotient * 10));
+            remaining = quotient;
+        } while (remaining != 0);
+        return position;
+    }
+
+    // Matches String.format("%.Nf"); returns -1 when the value needs the slow path
+    private int formatDouble(double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || decimals < 0 || decimals >= POWERS_OF_TEN.length) {
+            return -1;
+        }
+        double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+        if (scaled >= MAX_FAST_FORMAT) {
+            return -1;
+        }
+        // The formatter rounds the shortest decimal form of the double, which can land either side of a tie
+        // that the binary value sits next to; leave anything that close to a half unit to it
+        double fraction = scaled - Math.floor(scaled);
+        if (Math.abs(fraction - 0.5) < scaled * 1e-14 + 1e-9) {
+            return -1;
+        }
+
+        boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+        int position = writeDigits((long) (scaled + 0.5), digits.length, decimals);
+        if (negative) {
+            digits[--position] = '-';
+        }
+        return digits.length - position;
+    }
+
+    private void date(LocalDateTime timestamp) throws IOException {
+        padded(timestamp.getYear(), 4);
+        put('-');
+        padded(timestamp.getMonthValue(), 2);
+        put('-');
+        padded(timestamp.getDayOfMonth(), 2);
+    }
+
+    private void dateTime(LocalDateTime timestamp) throws IOException {
+        date(timestamp);
+        put(' ');
+        padded(timestamp.getHour(), 2);
+        put(':');
+        padded(timestamp.getMinute(), 2);
+        put(':');
+        padded(timestamp.getSecond(), 2);
+    }
+
+    private void padded(int value, int width) throws IOException {
+        int length = formatLong(value);
+        repeat('0', width - length);
+        appendDigits(length);
+    }
+
+    private ReportWriter csv(String value) throws IOException {
+        if (value == null) {
+            return this;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return put(value);
+        }
+        put('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                put('"');
+            }
+            put(c);
+        }
+        return put('"');
+    }
+
+    private void json(String value) throws IOException {
+        if (value == null) {
+            put("null");
+            return;
+        }
+        put('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    put("\\\"");
+                    break;
+                case '\\':
+                    put("\\\\");
+                    break;
+                case '\n':
+                    put("\\n");
+                    break;
+                case '\r':
+                    put("\\r");
+                    break;
+                case '\t':
+                    put("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        put("\\u00");
+                        put(Character.forDigit(c >> 4, 16)).put(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        put(c);
+                    }
+            }
+        }
+        put('"');
+    }
+}
@@ -1,7 +1,17 @@
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 public class Stock {
+    public interface PriceListener {
+        void onPriceUpdate(Stock stock, double oldPrice, double newPrice);
+
+        // The trading session ended: open, high, low and volume start again from the current price
+        default void onDailyReset(Stock stock) {
+        }
+    }
+
     private String symbol;
     private String companyName;
     private double currentPrice;
@@ -12,6 +22,7 @@ public class Stock {
     private double previousClose;
     private String sector;
     private Random random;
+    private List<PriceListener> priceListeners;
     private static final DecimalFormat df = new DecimalFormat("#.##");
 
     public Stock(String symbol, String companyName, double initialPrice, String sector) {
@@ -25,6 +36,7 @@ public class Stock {
         this.sector = sector;
         this.volume = 0;
         this.random = new Random();
+        this.priceListeners = new ArrayList<>();
     }
 
     public void simulatePriceMovement() {
@@ -50,6 +62,7 @@ public class Stock {
 
 
     public void updatePrice(double newPrice) {
+        double oldPrice = this.currentPrice;
         this.currentPrice = Math.round(newPrice * 100.0) / 100.0;
 
         if (this.currentPrice > this.dayHigh) {
@@ -58,6 +71,20 @@ public class Stock {
         if (this.currentPrice < this.dayLow) {
             this.dayLow = this.currentPrice;
         }
+
+        for (int i = 0; i < priceListeners.size(); i++) {
+            priceListeners.get(i).onPriceUpdate(this, oldPrice, this.currentPrice);
+        }
+    }
+
+    public void addPriceListener(PriceListener listener) {
+        if (!priceListeners.contains(listener)) {
+            priceListeners.add(listener);
+        }
+    }
+
+    public void removePriceListener(PriceListener listener) {
+        priceListeners.remove(listener);
     }
 
     public double getPercentageChange() {
@@ -78,6 +105,10 @@ public class Stock {
         this.dayHigh = this.currentPrice;
         this.dayLow = this.currentPrice;
         this.volume = 0;
+
+        for (int i = 0; i < priceListeners.size(); i++) {
+            priceListeners.get(i).onDailyReset(this);
+        }
     }
 
     public double getMarketCap() {
@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+public final class TradeMessageCodec {
+    public static final byte TRANSACTION_MESSAGE = 1;
+    public static final byte ORDER_MESSAGE = 2;
+    public static final byte FILL_MESSAGE = 3;
+
+    public static final byte ORDER_MARKET = 0;
+    public static final byte ORDER_LIMIT = 1;
+    public static final byte ORDER_STOP_LOSS = 2;
+    public static final byte ORDER_TAKE_PROFIT = 3;
+
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private TradeMessageCodec() {
+    }
+
+    public static byte messageType(ByteBuffer buffer, int offset) {
+        return buffer.get(offset);
+    }
+
+    public static int messageLength(byte messageType) {
+        switch (messageType) {
+            case TRANSACTION_MESSAGE:
+                return TransactionFlyweight.LENGTH;
+            case ORDER_MESSAGE:
+                return OrderFlyweight.LENGTH;
+            case FILL_MESSAGE:
+                return FillFlyweight.LENGTH;
+            default:
+                throw new IllegalArgumentException("Unknown message type: " + messageType);
+        }
+    }
+
+    public static long toEpochNanos(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+    }
+
+    public static LocalDateTime fromEpochNanos(long epochNanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                (int) Math.floorMod(epochNanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+
+    // Flyweights read and write fields in place with absolute ByteBuffer access; wrap() never allocates
+    abstract static class Flyweight<T extends Flyweight<T>> {
+        protected ByteBuffer buffer;
+        protected int offset;
+
+        @SuppressWarnings("unchecked")
+        public T wrap(ByteBuffer buffer, int offset) {
+            if (buffer.order() != BYTE_ORDER) {
+                throw new IllegalArgumentException("Buffer must use " + BYTE_ORDER + " byte order");
+            }
+            if (offset < 0 || offset + length() > buffer.limit()) {
+                throw new IndexOutOfBoundsException("Message does not fit in buffer at offset " + offset);
+            }
+            this.buffer = buffer;
+            this.offset = offset;
+            return (T) this;
+        }
+
+        public abstract int length();
+
+        public int getOffset() { return offset; }
+        public byte getMessageType() { return buffer.get(offset); }
+
+        // Every text field is checked before anything is written, so a rejected message leaves the slot untouched
+        protected static void checkAscii(String field, int width, CharSequence value) {
+            if (value == null) {
+                return;
+            }
+            if (value.length() > width) {
+                throw new IllegalArgumentException(field + " longer than " + width + " characters: " + value);
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == 0 || c >= 128) {
+                    throw new IllegalArgumentException(field + " must be ASCII without NUL characters: " + value);
+                }
+            }
+        }
+
+        protected void putAscii(int fieldOffset, int width, CharSequence value) {
+            int length = value == null ? 0 : value.length();
+            int index = offset + fieldOffset;
+            for (int i = 0; i < length; i++) {
+                buffer.put(index + i, (byte) value.charAt(i));
+            }
+            for (int i = length; i < width; i++) {
+                buffer.put(index + i, (byte) 0);
+            }
+        }
+
+        protected int asciiLength(int fieldOffset, int width) {
+            int index = offset + fieldOffset;
+            int length = 0;
+            while (length < width && buffer.get(index + length) != 0) {
+                length++;
+            }
+            return length;
+        }
+
+        protected <A extends Appendable> A appendAscii(int fieldOffset, int width, A target) {
+            int index = offset + fieldOffset;
+            int length = asciiLength(fieldOffset, width);
+            try {
+                for (int i = 0; i < length; i++) {
+                    target.append((char) buffer.get(index + i));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return target;
+        }
+
+        protected boolean asciiEquals(int fieldOffset, int width, CharSequence value) {
+            int length = asciiLength(fieldOffset, width);
+            if (value.length() != length) {
+                return false;
+            }
+            int index = offset + fieldOffset;
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(index + i) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        protected String getAscii(int fieldOffset, int width) {
+            byte[] bytes = new byte[asciiLength(fieldOffset, width)];
+            buffer.get(offset + fieldOffset, bytes);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+    }
+
+    public static final class TransactionFlyweight extends Flyweight<TransactionFlyweight> {
+        public static final int LENGTH = 128;
+        public static final int ID_WIDTH = 16;
+        public static final int USER_ID_WIDTH = 16;
+        public static final int SYMBOL_WIDTH = 8;
+        public static final int NOTES_WIDTH = 48;
+
+        private static final int TYPE = 1;
+        private static final int QUANTITY = 4;
+        private static final int TIMESTAMP = 8;
+        private static final int PRICE = 16;
+        private static final int TOTAL = 24;
+        private static final int COMMISSION = 32;
+        private static final int ID = 40;
+        private static final int USER_ID = 56;
+        private static final int SYMBOL = 72;
+        private static final int NOTES = 80;
+
+        private static final Transaction.TransactionType[] TYPES = Transaction.TransactionType.values();
+
+        @Override
+        public int length() { return LENGTH; }
+
+        public TransactionFlyweight encode(Transaction transaction) {
+            checkAscii("Transaction id", ID_WIDTH, transaction.getTransactionId());
+            checkAscii("User id", USER_ID_WIDTH, transaction.getUserId());
+            checkAscii("Symbol", SYMBOL_WIDTH, transaction.getStockSymbol());
+            checkAscii("Notes", NOTES_WIDTH, transaction.getNotes());
+            buffer.put(offset, TRANSACTION_MESSAGE);
+            buffer.put(offset + TYPE, (byte) transaction.getType().ordinal());
+            buffer.put(offset + 2, (byte) 0);
+            buffer.put(offset + 3, (byte) 0);
+            buffer.putInt(offset + QUANTITY, transaction.getQuantity());
+            buffer.putLong(offset + TIMESTAMP, toEpochNanos(transaction.getTimestamp()));
+            buffer.putDouble(offset + PRICE, transaction.getPricePerShare());
+            buffer.putDouble(offset + TOTAL, transaction.getTotalAmount());
+            buffer.putDouble(offset + COMMISSION, transaction.getCommission());
+            putAscii(ID, ID_WIDTH, transaction.getTransactionId());
+            putAscii(USER_ID, USER_ID_WIDTH, transaction.getUserId());
+            putAscii(SYMBOL, SYMBOL_WIDTH, transaction.getStockSymbol());
+            putAscii(NOTES, NOTES_WIDTH, transaction.getNotes());
+            return this;
+        }
+
+        public Transaction decode() {
+            return new Transaction(getTransactionId(), getUserId(), getStockSymbol(), getType(), getQuantity(),
+                    getPricePerShare(), getTotalAmount(), getCommission(), getTimestamp(), getNotes());
+        }
+
+        public Transaction.TransactionType getType() { return TYPES[buffer.get(offset + TYPE)]; }
+        public int getQuantity() { return buffer.getInt(offset + QUANTITY); }
+        public long getTimestampNanos() { return buffer.getLong(offset + TIMESTAMP); }
+        public LocalDateTime getTimestamp() { return fromEpochNanos(getTimestampNanos()); }
+        public double getPricePerShare() { return buffer.getDouble(offset + PRICE); }
+        public double getTotalAmount() { return buffer.getDouble(offset + TOTAL); }
+        public double getCommission() { return buffer.getDouble(offset + COMMISSION); }
+        public String getTransactionId() { return getAscii(ID, ID_WIDTH); }
+        public String getUserId() { return getAscii(USER_ID, USER_ID_WIDTH); }
+        public String getStockSymbol() { return getAscii(SYMBOL, SYMBOL_WIDTH); }
+        public String getNotes() { return getAscii(NOTES, NOTES_WIDTH); }
+
+        public <A extends Appendable> A appendTransactionId(A target) { return appendAscii(ID, ID_WIDTH, target); }
+        public <A extends Appendable> A appendUserId(A target) { return appendAscii(USER_ID, USER_ID_WIDTH, target); }
+        public <A extends Appendable> A appendStockSymbol(A target) { return appendAscii(SYMBOL, SYMBOL_WIDTH, target); }
+        public boolean isUser(CharSequence userId) { return asciiEquals(USER_ID, USER_ID_WIDTH, userId); }
+        public boolean isSymbol(CharSequence symbol) { return asciiEquals(SYMBOL, SYMBOL_WIDTH, symbol); }
+    }
+
+    public static final class OrderFlyweight extends Flyweight<OrderFlyweight> {
+        public static final int LENGTH = 64;
+        public static final int USER_ID_WIDTH = 16;
+        public static final int SYMBOL_WIDTH = 8;
+
+        private static final int SIDE = 1;
+        private static final int ORDER_TYPE = 2;
+        private static final int QUANTITY = 4;
+        private static final int ORDER_ID = 8;
+        private static final int TIMESTAMP = 16;
+        private static final int PRICE = 24;
+        private static final int COMMISSION = 32;
+        private static final int USER_ID = 40;
+        private static final int SYMBOL = 56;
+
+        @Override
+        public int length() { return LENGTH; }
+
+        public OrderFlyweight encode(long orderId, long timestampNanos, CharSequence userId, CharSequence symbol,
+                                     OrderPipeline.Side side, byte orderType, int quantity, double price,
+                                     double commission) {
+            checkAscii("User id", USER_ID_WIDTH, userId);
+            checkAscii("Symbol", SYMBOL_WIDTH, symbol);
+            buffer.put(offset, ORDER_MESSAGE);
+            buffer.put(offset + SIDE, (byte) side.ordinal());
+            buffer.put(offset + ORDER_TYPE, orderType);
+            buffer.put(offset + 3, (byte) 0);
+            buffer.putInt(offset + QUANTITY, quantity);
+            buffer.putLong(offset + ORDER_ID, orderId);
+            buffer.putLong(offset + TIMESTAMP, timestampNanos);
+            buffer.putDouble(offset + PRICE, price);
+            buffer.putDouble(offset + COMMISSION, commission);
+            putAscii(USER_ID, USER_ID_WIDTH, userId);
+            putAscii(SYMBOL, SYMBOL_WIDTH, symbol);
+            return this;
+        }
+
+        public OrderPipeline.Side getSide() { return buffer.get(offset + SIDE) == 0 ? OrderPipeline.Side.BUY : OrderPipeline.Side.SELL; }
+        public byte getOrderType() { return buffer.get(offset + ORDER_TYPE); }
+        public int getQuantity() { return buffer.getInt(offset + QUANTITY); }
+        public long getOrderId() { return buffer.getLong(offset + ORDER_ID); }
+        public long getTimestampNanos() { return buffer.getLong(offset + TIMESTAMP); }
+        public double getPrice() { return buffer.getDouble(offset + PRICE); }
+        public double getCommission() { return buffer.getDouble(offset + COMMISSION); }
+        public String getUserId() { return getAscii(USER_ID, USER_ID_WIDTH); }
+        public String getSymbol() { return getAscii(SYMBOL, SYMBOL_WIDTH); }
+
+        public <A extends Appendable> A appendUserId(A target) { return appendAscii(USER_ID, USER_ID_WIDTH, target); }
+        public <A extends Appendable> A appendSymbol(A target) { return appendAscii(SYMBOL, SYMBOL_WIDTH, target); }
+        public boolean isUser(CharSequence userId) { return asciiEquals(USER_ID, USER_ID_WIDTH, userId); }
+        public boolean isSymbol(CharSequence symbol) { return asciiEquals(SYMBOL, SYMBOL_WIDTH, symbol); }
+    }
+
+    public static final class FillFlyweight extends Flyweight<FillFlyweight> {
+        public static final int LENGTH = 48;
+        public static final int SYMBOL_WIDTH = 8;
+
+        private static final int SIDE = 1;
+        private static final int QUANTITY = 4;
+        private static final int ORDER_ID = 8;
+        private static final int TIMESTAMP = 16;
+        private static final int PRICE = 24;
+        private static final int COMMISSION = 32;
+        private static final int SYMBOL = 40;
+
+        @Override
+        public int length() { return LENGTH; }
+
+        public FillFlyweight encode(long orderId, long timestampNanos, CharSequence symbol, OrderPipeline.Side side,
+                                    int quantity, double price, double commission) {
+            checkAscii("Symbol", SYMBOL_WIDTH, symbol);
+            buffer.put(offset, FILL_MESSAGE);
+            buffer.put(offset + SIDE, (byte) side.ordinal());
+            buffer.putShort(offset + 2, (short) 0);
+            buffer.putInt(offset + QUANTITY, quantity);
+            buffer.putLong(offset + ORDER_ID, orderId);
+            buffer.putLong(offset + TIMESTAMP, timestampNanos);
+            buffer.putDouble(offset + PRICE, price);
+            buffer.putDouble(offset + COMMISSION, commission);
+            putAscii(SYMBOL, SYMBOL_WIDTH, symbol);
+            return this;
+        }
+
+        public OrderPipeline.Side getSide() { return buffer.get(offset + SIDE) == 0 ? OrderPipeline.Side.BUY : OrderPipeline.Side.SELL; }
+        public int getQuantity() { return buffer.getInt(offset + QUANTITY); }
+        public long getOrderId() { return buffer.getLong(offset + ORDER_ID); }
+        public long getTimestampNanos() { return buffer.getLong(offset + TIMESTAMP); }
+        public double getPrice() { return buffer.getDouble(offset + PRICE); }
+        public double getCommission() { return buffer.getDouble(offset + COMMISSION); }
+        public String getSymbol() { return getAscii(SYMBOL, SYMBOL_WIDTH); }
+
+        public <A extends Appendable> A appendSymbol(A target) { return appendAscii(SYMBOL, SYMBOL_WIDTH, target); }
+        public boolean isSymbol(CharSequence symbol) { return asciiEquals(SYMBOL, SYMBOL_WIDTH, symbol); }
+    }
+}
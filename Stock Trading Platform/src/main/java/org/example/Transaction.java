@@ -1,5 +1,8 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Transaction {
     public enum TransactionType {
@@ -17,11 +20,12 @@ public class Transaction {
     private LocalDateTime timestamp;
     private String notes;
 
-    private static int transactionCounter = 1000;
+    // Trades are recorded from the order pipeline's execution thread as well as from callers
+    private static final AtomicInteger transactionCounter = new AtomicInteger(1000);
 
     public Transaction(String userId, String stockSymbol, TransactionType type, 
                       int quantity, double pricePerShare, double commission) {
-        this.transactionId = "TXN" + String.format("%06d", ++transactionCounter);
+        this.transactionId = "TXN" + String.format("%06d", transactionCounter.incrementAndGet());
         this.userId = userId;
         this.stockSymbol = stockSymbol.toUpperCase();
         this.type = type;
@@ -42,7 +46,7 @@ public class Transaction {
     }
 
     public Transaction(String userId, String stockSymbol, double dividendAmount, String notes) {
-        this.transactionId = "DIV" + String.format("%06d", ++transactionCounter);
+        this.transactionId = "DIV" + String.format("%06d", transactionCounter.incrementAndGet());
         this.userId = userId;
         this.stockSymbol = stockSymbol.toUpperCase();
         this.type = TransactionType.DIVIDEND;
@@ -54,6 +58,20 @@ public class Transaction {
         this.notes = notes != null ? notes : "Dividend payment";
     }
 
+    Transaction(String transactionId, String userId, String stockSymbol, TransactionType type, int quantity,
+                double pricePerShare, double totalAmount, double commission, LocalDateTime timestamp, String notes) {
+        this.transactionId = transactionId;
+        this.userId = userId;
+        this.stockSymbol = stockSymbol.toUpperCase();
+        this.type = type;
+        this.quantity = quantity;
+        this.pricePerShare = pricePerShare;
+        this.totalAmount = totalAmount;
+        this.commission = commission;
+        this.timestamp = timestamp;
+        this.notes = notes != null ? notes : "";
+    }
+
     public double getCashFlow() {
         switch (type) {
             case BUY:
@@ -140,32 +158,12 @@ public class Transaction {
     }
 
     public String getDetailedReport() {
-        StringBuilder report = new StringBuilder();
-        report.append("=".repeat(50)).append("\n");
-        report.append("TRANSACTION DETAILS\n");
-        report.append("=".repeat(50)).append("\n");
-        report.append(String.format("Transaction ID: %s\n", transactionId));
-        report.append(String.format("User ID: %s\n", userId));
-        report.append(String.format("Type: %s\n", type.toString()));
-        report.append(String.format("Stock Symbol: %s\n", stockSymbol));
-        report.append(String.format("Timestamp: %s\n", getFormattedTimestamp()));
-
-        if (type == TransactionType.BUY || type == TransactionType.SELL) {
-            report.append(String.format("Quantity: %d shares\n", quantity));
-            report.append(String.format("Price per Share: $%.2f\n", pricePerShare));
-            report.append(String.format("Subtotal: $%.2f\n", quantity * pricePerShare));
-            report.append(String.format("Commission: $%.2f\n", commission));
+        StringBuilder report = new StringBuilder(512);
+        try {
+            new ReportWriter(report, ReportWriter.Format.TEXT).writeTransaction(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        report.append(String.format("Total Amount: $%.2f\n", totalAmount));
-        report.append(String.format("Cash Flow Impact: %s$%.2f\n", 
-                getCashFlow() >= 0 ? "+" : "", getCashFlow()));
-
-        if (!notes.isEmpty()) {
-            report.append(String.format("Notes: %s\n", notes));
-        }
-
-        report.append("=".repeat(50));
         return report.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,275 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+public class TriggerEngine implements Stock.PriceListener {
+    public enum TriggerType {
+        STOP_LOSS(false, true),
+        TAKE_PROFIT(false, false),
+        BUY_LIMIT(true, true),
+        BUY_STOP(true, false);
+
+        private final boolean buy;
+        private final boolean firesOnFall;
+
+        TriggerType(boolean buy, boolean firesOnFall) {
+            this.buy = buy;
+            this.firesOnFall = firesOnFall;
+        }
+
+        public boolean isBuy() {
+            return buy;
+        }
+
+        public boolean firesOnFall() {
+            return firesOnFall;
+        }
+    }
+
+    public interface TriggerListener {
+        void onTriggered(TriggerOrder order, double executionPrice, boolean executed);
+    }
+
+    public static class TriggerOrder {
+        private final long orderId;
+        private final User user;
+        private final Portfolio portfolio;
+        private final String symbol;
+        private final TriggerType type;
+        private final long triggerCents;
+        private final int quantity;
+        private final double commission;
+        private boolean active;
+
+        private TriggerOrder(long orderId, User user, String symbol, TriggerType type,
+                             long triggerCents, int quantity, double commission) {
+            this.orderId = orderId;
+            this.user = user;
+            this.portfolio = user.getPortfolio();
+            this.symbol = symbol;
+            this.type = type;
+            this.triggerCents = triggerCents;
+            this.quantity = quantity;
+            this.commission = commission;
+            this.active = true;
+        }
+
+        public long getOrderId() { return orderId; }
+        public User getUser() { return user; }
+        public Portfolio getPortfolio() { return portfolio; }
+        public String getSymbol() { return symbol; }
+        public TriggerType getType() { return type; }
+        public double getTriggerPrice() { return triggerCents / 100.0; }
+        public int getQuantity() { return quantity; }
+        public double getCommission() { return commission; }
+        public boolean isActive() { return active; }
+
+        @Override
+        public String toString() {
+            return String.format("TriggerOrder{id=%d, %s %s x%d @ $%.2f, active=%s}",
+                    orderId, type, symbol, quantity, getTriggerPrice(), active);
+        }
+    }
+
+    // Price levels are keyed in cents, the same precision Stock.updatePrice rounds to
+    private static class SymbolBook {
+        private final NavigableMap<Long, List<TriggerOrder>> fallingLevels = new TreeMap<>();
+        private final NavigableMap<Long, List<TriggerOrder>> risingLevels = new TreeMap<>();
+        private int pendingCount;
+    }
+
+    private final Map<String, Stock> stockMap;
+    private final Map<String, SymbolBook> books;
+    private final List<TriggerListener> listeners;
+    private volatile MarginMonitor marginMonitor;
+    private long orderCounter;
+
+    // The stock map values margin buys for users who allow margin trading
+    public TriggerEngine(Map<String, Stock> stockMap) {
+        this.stockMap = stockMap;
+        this.books = new HashMap<>();
+        this.listeners = new ArrayList<>();
+    }
+
+    public void addListener(TriggerListener listener) {
+        listeners.add(listener);
+    }
+
+    public void setMarginMonitor(MarginMonitor marginMonitor) { this.marginMonitor = marginMonitor; }
+
+    // An order whose trigger the current price has already crossed fires at once, on the caller's thread
+    public TriggerOrder placeOrder(User user, Stock stock, TriggerType type,
+                                   double triggerPrice, int quantity, double commission) {
+        if (quantity <= 0 || triggerPrice <= 0) {
+            throw new IllegalArgumentException("Quantity and trigger price must be positive");
+        }
+
+        SymbolBook book;
+        long orderId;
+        synchronized (this) {
+            book = books.get(stock.getSymbol());
+            if (book == null) {
+                book = new SymbolBook();
+                books.put(stock.getSymbol(), book);
+                stock.addPriceListener(this);
+            }
+            orderId = ++orderCounter;
+        }
+
+        TriggerOrder order = new TriggerOrder(orderId, user, stock.getSymbol(), type,
+                Math.round(triggerPrice * 100.0), quantity, commission);
+
+        // A tick that lands after this check finds the order in the book; one that landed before it is seen here
+        boolean crossed;
+        synchronized (book) {
+            long priceCents = Math.round(stock.getCurrentPrice() * 100.0);
+            crossed = type.firesOnFall() ? priceCents <= order.triggerCents : priceCents >= order.triggerCents;
+            if (crossed) {
+                order.active = false;
+            } else {
+                levelsFor(book, type).computeIfAbsent(order.triggerCents, k -> new ArrayList<>()).add(order);
+                book.pendingCount++;
+            }
+        }
+        if (crossed) {
+            execute(order, stock);
+        }
+        return order;
+    }
+
+    public boolean cancelOrder(TriggerOrder order) {
+        SymbolBook book;
+        synchronized (this) {
+            book = books.get(order.symbol);
+        }
+        if (book == null) {
+            return false;
+        }
+
+        synchronized (book) {
+            if (!order.active) {
+                return false;
+            }
+            NavigableMap<Long, List<TriggerOrder>> levels = levelsFor(book, order.type);
+            List<TriggerOrder> level = levels.get(order.triggerCents);
+            if (level == null || !level.remove(order)) {
+                return false;
+            }
+            if (level.isEmpty()) {
+                levels.remove(order.triggerCents);
+            }
+            order.active = false;
+            book.pendingCount--;
+            return true;
+        }
+    }
+
+    @Override
+    public void onPriceUpdate(Stock stock, double oldPrice, double newPrice) {
+        SymbolBook book;
+        synchronized (this) {
+            book = books.get(stock.getSymbol());
+        }
+        if (book == null) {
+            return;
+        }
+
+        long priceCents = Math.round(newPrice * 100.0);
+
+        // Only the levels the new price has crossed are visited. The book lock covers just taking the orders out:
+        // trades, the margin refresh and listeners run after it is released, so a slow one does not hold up ticks
+        // and portfolio locks are never taken while the book is held.
+        List<TriggerOrder> firing = null;
+        synchronized (book) {
+            firing = collectCrossed(book, book.fallingLevels.tailMap(priceCents, true), firing);
+            firing = collectCrossed(book, book.risingLevels.headMap(priceCents, true), firing);
+        }
+        if (firing == null) {
+            return;
+        }
+
+        for (TriggerOrder order : firing) {
+            execute(order, stock);
+        }
+    }
+
+    private List<TriggerOrder> collectCrossed(SymbolBook book, NavigableMap<Long, List<TriggerOrder>> crossed,
+                                              List<TriggerOrder> firing) {
+        if (crossed.isEmpty()) {
+            return firing;
+        }
+        if (firing == null) {
+            firing = new ArrayList<>();
+        }
+
+        Iterator<List<TriggerOrder>> levels = crossed.values().iterator();
+        while (levels.hasNext()) {
+            for (TriggerOrder order : levels.next()) {
+                order.active = false;
+                firing.add(order);
+                book.pendingCount--;
+            }
+            levels.remove();
+        }
+        return firing;
+    }
+
+    private void execute(TriggerOrder order, Stock stock) {
+        Portfolio portfolio = order.portfolio;
+        boolean useMargin = order.user.getPreferences().isAllowMarginTrading();
+        boolean executed;
+        synchronized (portfolio) {
+            if (!order.type.isBuy()) {
+                executed = portfolio.sellStock(stock, order.quantity, order.commission);
+            } else if (useMargin) {
+                executed = portfolio.buyStockOnMargin(stock, order.quantity, order.commission, stockMap);
+            } else {
+                executed = portfolio.buyStock(stock, order.quantity, order.commission);
+            }
+        }
+
+        MarginMonitor monitor = marginMonitor;
+        if (monitor != null && executed) {
+            monitor.refresh(portfolio);
+        }
+
+        for (TriggerListener listener : listeners) {
+            listener.onTriggered(order, stock.getCurrentPrice(), executed);
+        }
+    }
+
+    private static NavigableMap<Long, List<TriggerOrder>> levelsFor(SymbolBook book, TriggerType type) {
+        return type.firesOnFall() ? book.fallingLevels : book.risingLevels;
+    }
+
+    public int getPendingCount(String symbol) {
+        SymbolBook book;
+        synchronized (this) {
+            book = books.get(symbol.toUpperCase());
+        }
+        if (book == null) {
+            return 0;
+        }
+        synchronized (book) {
+            return book.pendingCount;
+        }
+    }
+
+    public int getPendingCount() {
+        List<SymbolBook> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(books.values());
+        }
+        int total = 0;
+        for (SymbolBook book : snapshot) {
+            synchronized (book) {
+                total += book.pendingCount;
+            }
+        }
+        return total;
+    }
+}
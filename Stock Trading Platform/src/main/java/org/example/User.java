@@ -1,5 +1,6 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 public class User {
@@ -24,7 +25,26 @@ public class User {
     }
 
     public enum RiskProfile {
-        CONSERVATIVE, MODERATE, AGGRESSIVE, VERY_AGGRESSIVE
+        CONSERVATIVE(0.05, 0.40),
+        MODERATE(0.10, 0.60),
+        AGGRESSIVE(0.20, 0.80),
+        VERY_AGGRESSIVE(0.30, 0.95);
+
+        private final double maxPositionPercent;
+        private final double equityAllocation;
+
+        RiskProfile(double maxPositionPercent, double equityAllocation) {
+            this.maxPositionPercent = maxPositionPercent;
+            this.equityAllocation = equityAllocation;
+        }
+
+        public double getMaxPositionPercent() {
+            return maxPositionPercent;
+        }
+
+        public double getEquityAllocation() {
+            return equityAllocation;
+        }
     }
 
     public static class TradingPreferences {
@@ -132,18 +152,11 @@ public class User {
             return false;
         }
 
-        switch (riskProfile) {
-            case CONSERVATIVE:
-                return positionPercent <= 0.05; // Max 5% position
-            case MODERATE:
-                return positionPercent <= 0.10; // Max 10% position
-            case AGGRESSIVE:
-                return positionPercent <= 0.20; // Max 20% position
-            case VERY_AGGRESSIVE:
-                return positionPercent <= 0.30; // Max 30% position
-            default:
-                return true;
-        }
+        return positionPercent <= riskProfile.getMaxPositionPercent();
+    }
+
+    public boolean hasReachedDailyLossLimit(Map<String, Stock> stockMap) {
+        return -portfolio.getDailyProfitLoss(stockMap) >= preferences.getMaxDailyLoss();
     }
 
     public String getTradingActivityLevel() {
@@ -176,47 +189,12 @@ public class User {
     }
 
     public String getProfileSummary() {
-        StringBuilder summary = new StringBuilder();
-        summary.append("\n").append("=".repeat(50)).append("\n");
-        summary.append("USER PROFILE\n");
-        summary.append("=".repeat(50)).append("\n");
-        summary.append(String.format("User ID: %s\n", userId));
-        summary.append(String.format("Name: %s %s\n", firstName, lastName));
-        summary.append(String.format("Username: %s\n", username));
-        summary.append(String.format("Email: %s\n", email));
-        summary.append(String.format("Phone: %s\n", phoneNumber.isEmpty() ? "Not provided" : phoneNumber));
-        summary.append(String.format("Registration Date: %s\n", 
-                registrationDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"))));
-        summary.append(String.format("Last Login: %s\n", 
-                lastLoginDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))));
-        summary.append(String.format("Status: %s\n", status));
-        summary.append(String.format("Risk Profile: %s\n", riskProfile));
-        summary.append(String.format("Activity Level: %s\n", getTradingActivityLevel()));
-        summary.append(String.format("Success Rate: %.1f%%\n", getSuccessRate()));
-
-        summary.append("\nTRADING PREFERENCES:\n");
-        summary.append("-".repeat(30)).append("\n");
-        summary.append(String.format("Notifications: %s\n", 
-                preferences.isEnableNotifications() ? "Enabled" : "Disabled"));
-        summary.append(String.format("Max Daily Loss: $%.2f\n", preferences.getMaxDailyLoss()));
-        summary.append(String.format("Max Position Size: %.1f%%\n", preferences.getMaxPositionSize() * 100));
-        summary.append(String.format("Margin Trading: %s\n", 
-                preferences.isAllowMarginTrading() ? "Allowed" : "Not Allowed"));
-        summary.append(String.format("After Hours Trading: %s\n", 
-                preferences.isAllowAfterHoursTrading() ? "Allowed" : "Not Allowed"));
-        summary.append(String.format("Preferred Order Type: %s\n", preferences.getPreferredOrderType()));
-
-        summary.append("\nWATCHLIST:\n");
-        summary.append("-".repeat(20)).append("\n");
-        if (watchlist.isEmpty()) {
-            summary.append("No stocks in watchlist\n");
-        } else {
-            for (String symbol : watchlist) {
-                summary.append(String.format("- %s\n", symbol));
-            }
+        StringBuilder summary = new StringBuilder(1024);
+        try {
+            new ReportWriter(summary, ReportWriter.Format.TEXT).writeProfile(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        summary.append("=".repeat(50));
         return summary.toString();
     }
 